@@ -1,6 +1,7 @@
 package Client;
 
 import Server.ProxyServerInterface;
+import Server.RoutingTable;
 import Server.ServerInterface;
 import Shared.*;
 
@@ -11,7 +12,20 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -21,10 +35,45 @@ public class Client implements ClientCallbackInterface, Serializable {
 
     private LinkedList<Query> responses = new LinkedList<>();
     private int sentQueries = 0;
-    private LinkedList<UserProfile> cache = new LinkedList<>();
+
+    // Cache of the user profiles returned with query responses, keyed by userID
+    private Boolean clientCaching;
+    private LRUCache<String, UserProfile> cache;
 
     private ProxyServerInterface proxyServer = null;
-    private ServerInterface server = null;
+
+    // The client's copy of the proxy-server's routing table, and when it was fetched. Servers are chosen from the copy
+    // while it is recent, so the proxy-server is only asked for assignments when it cannot be refreshed
+    private volatile RoutingTable routingTable = null;
+    private volatile long routingTableTime = 0;
+    private long routingTableMaxAge;
+
+    // Refreshes the routing table and schedules the retries of rejected queries
+    private ScheduledExecutorService scheduler;
+
+    // Server stubs by server address, so each server is only looked up in the registry once
+    private ConcurrentHashMap<String, ServerInterface> servers = new ConcurrentHashMap<>();
+
+    // Queries that have been sent but not answered yet, keyed by query ID. The futures are completed by the server
+    // callbacks, so no thread waits on an outstanding query
+    private ConcurrentHashMap<Long, CompletableFuture<Query>> pendingQueries = new ConcurrentHashMap<>();
+    private AtomicLong nextQueryID = new AtomicLong();
+
+    // Limits the number of outstanding queries, and sends the queries without blocking the submitting thread
+    private Semaphore inFlight;
+    private ExecutorService sender;
+
+    // Priority class and timeout (in milliseconds, 0 for none) of queries submitted without them
+    private QueryPriority defaultPriority;
+    private long defaultTimeout;
+    private long responseTimeout;
+
+    // How long to wait before sending a rejected query to another server, and how many times a query can be rejected
+    private long retryBackoff;
+    private int maxRejections;
+
+    // Collects queries per server address so that they can be sent in batches
+    private Batcher<String, Query> queryBatcher;
 
     // Used to make sure only one server can send back a response at a time
     Lock lock = new ReentrantLock();
@@ -47,10 +96,36 @@ public class Client implements ClientCallbackInterface, Serializable {
      * Constructor for client.
      *
      * @param clientNumber: unique ID for the client.
+     * @param config: settings for the client.
      */
-    public Client(int clientNumber, int port) {
+    public Client(int clientNumber, int port, ClientConfig config) {
         this.clientNumber = clientNumber;
+        this.clientCaching = config.clientCaching;
+        this.cache = new LRUCache<>(config.cacheCapacity, profile -> 1, config.cacheTimeToLive);
+        this.inFlight = new Semaphore(config.maxInFlight);
+        this.routingTableMaxAge = config.routingTableMaxAge;
+        this.defaultPriority = config.defaultPriority;
+        this.defaultTimeout = config.defaultTimeout;
+        this.responseTimeout = config.responseTimeout;
+        this.retryBackoff = config.retryBackoff;
+        this.maxRejections = config.maxRejections;
+        this.queryBatcher = new Batcher<>("client_" + clientNumber + "-queries", config.queryBatchWindow,
+                config.maxQueryBatchSize, this::sendQueries);
+        this.sender = Executors.newFixedThreadPool(config.senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "client_" + clientNumber + "-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
         startClient(port);
+
+        // Fetch the routing table before the first query, then keep it up to date in the background
+        refreshRoutingTable();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "client_" + clientNumber + "-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshRoutingTable, config.routingRefreshInterval, config.routingRefreshInterval, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -74,7 +149,7 @@ public class Client implements ClientCallbackInterface, Serializable {
             System.out.println("\nSomething went wrong when trying to start client_" + clientNumber + ".");
             System.exit(1);
         }
-        System.out.println("client_" + clientNumber + " has started successfully.");
+        Log.info("client_" + clientNumber + " has started successfully.");
     }
 
     /**
@@ -84,6 +159,18 @@ public class Client implements ClientCallbackInterface, Serializable {
      * @throws RemoteException
      */
     public void sendQueryResponse(Query response) throws RemoteException {
+        // A query that expired in the server's queue has no result
+        if (response.status == QueryStatus.EXPIRED) {
+            Log.debug(() -> "Client received expired query.");
+            failQuery(response, new TimeoutException("Query expired before it was processed by a server."));
+            return;
+        }
+        if (response.status == QueryStatus.FAILED) {
+            Log.debug(() -> "Client received failed query.");
+            failQuery(response, new ExecutionException("Query failed in server_" + response.getProcessingServer() + ".", null));
+            return;
+        }
+
         lock.lock();
 
         // Set the final event timestamp representing that the query has been returned to the client object
@@ -91,110 +178,266 @@ public class Client implements ClientCallbackInterface, Serializable {
         addToCache(response);
         responses.add(response);
 
-        System.out.println("Client received query response.");
-        System.out.println("Received responses: " + responses.size());
+        int received = responses.size();
+        Log.debug(() -> "Client received query response. Received responses: " + received);
+
+        lock.unlock();
 
-        if (responses.size() == sentQueries) {
-            conclude();
+        // Complete the future returned when the query was submitted
+        CompletableFuture<Query> future = pendingQueries.remove(response.getQueryID());
+        if (future != null) {
+            future.complete(response);
         }
+    }
 
-        lock.unlock();
+    /**
+     * Remote method invoked by the server to respond to several queries already sent out by the client with a single
+     * call.
+     *
+     * @param responses: the query objects populated with responses.
+     * @throws RemoteException
+     */
+    public void sendQueryResponses(List<Query> responses) throws RemoteException {
+        for (Query response : responses) {
+            sendQueryResponse(response);
+        }
     }
 
     /**
-     * Get a server assignment from the proxy-server, parse the query and build a query object,
-     * then send the query object to the server assigned by the proxy-server.
+     * Parse the query and send it without waiting for the response. See submitQuery.
      *
      * @param queryString: the query as a string.
      * @param zone: the zone in which the client is sending the query from.
      */
     public void processQuery(String queryString, int zone) {
-        // Get a server assignment from the proxy-server
-        getServerAssignment(zone);
+        submitQuery(queryString, zone);
+    }
 
-        // Parse the query
-        String[] data = queryString.split("\\(");
-        String method = data[0];
-        String[] arguments = data[1].substring(0, data[1].length() - 1).split(",");
+    /**
+     * Parse the query and build a query object. If the query can be answered from the client's cache it is answered
+     * locally, otherwise the query is handed to a sender thread, which chooses a server from the routing table (or asks
+     * the proxy-server for one) and sends the query object to that server.
+     * This only blocks if the maximum number of queries are already outstanding.
+     *
+     * @param queryString: the query as a string.
+     * @param zone: the zone in which the client is sending the query from.
+     * @return CompletableFuture<Query>: completed with the query response once the server has responded.
+     */
+    public CompletableFuture<Query> submitQuery(String queryString, int zone) {
+        return submitQuery(queryString, zone, defaultPriority, defaultTimeout);
+    }
+
+    /**
+     * Same as submitQuery above, with a priority class and a deadline for the query. The servers process queries of
+     * higher priority classes more often, and drop queries whose deadline has passed before processing them, in which
+     * case the returned future fails with a TimeoutException. The returned future also fails with a TimeoutException
+     * if no response has arrived after the response timeout (or the deadline, if that is later).
+     *
+     * @param queryString: the query as a string.
+     * @param zone: the zone in which the client is sending the query from.
+     * @param priority: the priority class of the query.
+     * @param timeout: the time in milliseconds after which the response is no longer useful, or 0 for no deadline.
+     * @return CompletableFuture<Query>: completed with the query response once the server has responded.
+     */
+    public CompletableFuture<Query> submitQuery(String queryString, int zone, QueryPriority priority, long timeout) {
+        Query query = parseQuery(queryString, zone);
+        query.setQueryID(nextQueryID.getAndIncrement());
+
+        // Set the timestamp for when the query is sent from the client, and the deadline counting from there
+        query.timeStamps[0] = System.currentTimeMillis();
+        query.priority = priority;
+        query.returnProfile = clientCaching;
+        query.deadline = (timeout > 0) ? query.timeStamps[0] + timeout : 0;
+
+        if (searchCache(query)) {
+            getFromCache(query);
+            return CompletableFuture.completedFuture(query);
+        }
+
+        // The permit and the pending entry are given back however the future completes, also when no response arrives
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<Query> future = new CompletableFuture<>();
+        pendingQueries.put(query.getQueryID(), future);
+        future.whenComplete((response, error) -> {
+            pendingQueries.remove(query.getQueryID(), future);
+            inFlight.release();
+        });
+        future.orTimeout(Math.max(timeout, responseTimeout), TimeUnit.MILLISECONDS);
+
+        lock.lock();
+        sentQueries++;
+        lock.unlock();
 
-        // Build the query object and send the query object to the server for processing
+        sender.execute(() -> routeQuery(query));
+        return future;
+    }
+
+    /**
+     * Gets a server assignment for a query, then queues the query for the next batch to the server. This runs on a
+     * sender thread.
+     *
+     * @param query: the query to send.
+     */
+    private void routeQuery(Query query) {
         try {
-            Query query = null;
-            switch (method) {
-                case "getTimesPlayed" -> {
-                    assert (arguments.length == 1);
-                    query = new GetTimesPlayedQuery(zone, clientNumber, arguments[0]);
-                }
-                case "getTimesPlayedByUser" -> {
-                    assert (arguments.length == 2);
-                    query = new GetTimesPlayedByUserQuery(zone, clientNumber, arguments[0], arguments[1]);
-                }
-                case "getTopThreeMusicByUser" -> {
-                    assert (arguments.length == 1);
-                    query = new GetTopThreeMusicByUserQuery(zone, clientNumber, arguments[0]);
-                }
-                case "getTopArtistsByUserGenre" -> {
-                    assert (arguments.length == 2);
-                    query = new GetTopArtistsByUserGenreQuery(zone, clientNumber, arguments[0], arguments[1]);
-                }
-                default -> {
-                    System.out.println("\nError:\nInvalid remote method query: '" + method + "'.");
-                    System.exit(1);
+            queryBatcher.add(getServerAssignment(query.clientZone, query.getRoutingKey()), query);
+        } catch (Exception e) {
+            Log.error("Something went wrong when trying to get server assignment in client_" + clientNumber + ".", e);
+            failQuery(query, e);
+        }
+    }
+
+    /**
+     * Sends a batch of queries to a server with a single remote call. This runs on the query batcher's thread.
+     * Queries rejected by the server because it is overloaded are retried on another server.
+     *
+     * @param address: the address of the server.
+     * @param queries: the queries to send.
+     */
+    private void sendQueries(String address, ArrayList<Query> queries) {
+        try {
+            QueryStatus[] statuses = servers.get(address).sendQueries(queries);
+            Log.debug(() -> "Client sent " + queries.size() + " queries to " + address + ".");
+            for (int i = 0; i < statuses.length; i++) {
+                if (statuses[i] == QueryStatus.OVERLOADED) {
+                    retryQuery(queries.get(i), address);
                 }
             }
-
-            // Finally, set the timestamp for when the query is sent from the client, then send it to the server
-            query.timeStamps[0] = System.currentTimeMillis();
-            server.sendQuery(query);
-//            if (!searchCache(query)){
-//
-//            }else{
-//                getFromCache(query);
-//            }
-
-            sentQueries++;
-            System.out.println("Client sent query. Number of sent queries: " + sentQueries);
         } catch (Exception e) {
-            System.out.println("\nError:\n" + e);
-            System.out.println("\nSomething went wrong when trying to send query from client_" + clientNumber + " to " + server + ".");
-            System.exit(1);
+            Log.error("Something went wrong when trying to send queries from client_" + clientNumber + " to " + address + ".", e);
+            for (Query query : queries) {
+                failQuery(query, e);
+            }
         }
     }
 
     /**
+     * Handles a query rejected by an overloaded server. The server is avoided until the routing table is refreshed,
+     * and the query is sent again after a backoff that grows with each rejection. A query that has been rejected too
+     * many times fails.
      *
+     * @param query: the rejected query.
+     * @param address: the address of the server that rejected the query.
      */
-    private void addToCache(Query response){
+    private void retryQuery(Query query, String address) {
+        RoutingTable table = routingTable;
+        if (table != null) {
+            table.markOverloaded(address);
+        }
+
+        query.rejections++;
+        if (query.rejections >= maxRejections) {
+            failQuery(query, new RejectedExecutionException("Query was rejected by " + query.rejections + " overloaded servers."));
+            return;
+        }
+        scheduler.schedule(() -> sender.execute(() -> routeQuery(query)), retryBackoff * query.rejections, TimeUnit.MILLISECONDS);
+    }
 
+    /**
+     * Completes the future of a query that could not be sent with the error.
+     */
+    private void failQuery(Query query, Exception e) {
+        CompletableFuture<Query> future = pendingQueries.remove(query.getQueryID());
+        if (future != null) {
+            future.completeExceptionally(e);
+        }
     }
 
     /**
+     * Parse a query string and build the query object.
      *
+     * @param queryString: the query as a string.
+     * @param zone: the zone in which the client is sending the query from.
+     * @return Query: the query object.
      */
-    private boolean searchCache(Query query){
-        boolean hit = false;
+    private Query parseQuery(String queryString, int zone) {
+        String[] data = queryString.split("\\(");
+        String method = data[0];
+        String[] arguments = data[1].substring(0, data[1].length() - 1).split(",");
+
+        Query query = null;
+        switch (method) {
+            case "getTimesPlayed" -> {
+                assert (arguments.length == 1);
+                query = new GetTimesPlayedQuery(zone, clientNumber, arguments[0]);
+            }
+            case "getTimesPlayedByUser" -> {
+                assert (arguments.length == 2);
+                query = new GetTimesPlayedByUserQuery(zone, clientNumber, arguments[0], arguments[1]);
+            }
+            case "getTopThreeMusicByUser" -> {
+                assert (arguments.length == 1);
+                query = new GetTopThreeMusicByUserQuery(zone, clientNumber, arguments[0]);
+            }
+            case "getTopArtistsByUserGenre" -> {
+                assert (arguments.length == 2);
+                query = new GetTopArtistsByUserGenreQuery(zone, clientNumber, arguments[0], arguments[1]);
+            }
+            default -> {
+                System.out.println("\nError:\nInvalid remote method query: '" + method + "'.");
+                System.exit(1);
+            }
+        }
+        return query;
+    }
 
+    /**
+     * Adds the user profile returned with a query response to the cache, merging it with any profile already cached
+     * for the user.
+     *
+     * @param response: the query response.
+     */
+    private void addToCache(Query response) {
+        if (!clientCaching || response.cache == null) { return; }
+        cache.merge(response.cache.userID, response.cache, UserProfile::merge);
+    }
 
-        return true;
+    /**
+     * Checks whether the query can be answered from the cache. If it can, the query result is set.
+     *
+     * @param query: the query to answer.
+     * @return boolean: true on a cache hit.
+     */
+    private boolean searchCache(Query query) {
+        if (!clientCaching || query.getUserID() == null) { return false; }
+        return query.resolveFromProfile(cache.get(query.getUserID()));
     }
 
     /**
+     * Completes a query that was answered from the cache. The query is recorded as a response that was processed
+     * without any waiting or network time, and by no server (-1).
      *
+     * @param query: the query answered from the cache.
      */
-    private void getFromCache(Query query){
-        if (query instanceof GetTimesPlayedByUserQuery) {
+    private void getFromCache(Query query) {
+        lock.lock();
 
-        } else if (query instanceof GetTimesPlayedQuery) {
+        long now = System.currentTimeMillis();
+        for (int i = 1; i < query.timeStamps.length; i++) {
+            query.timeStamps[i] = now;
+        }
+        query.setProcessingServer(-1);
 
-        } else if (query instanceof GetTopArtistsByUserGenreQuery) {
+        sentQueries++;
+        responses.add(query);
+        int sent = sentQueries;
+        Log.debug(() -> "Client answered query from cache. Number of sent queries: " + sent);
 
-        } else if (query instanceof GetTopThreeMusicByUserQuery) {
+        lock.unlock();
+    }
 
+    /**
+     * Writes all the query responses and the average times per query type to the output file. This should be called
+     * once all submitted queries have completed.
+     */
+    public void conclude() {
+        lock.lock();
+        if (sentQueries == 0) {
+            lock.unlock();
+            return;
         }
-    }
 
-    private void conclude() {
-        System.out.println("Writing query responses to file ...");
+        Log.info("Writing query responses to file ...");
         try {
             FileWriter writer = new FileWriter("src\\main\\java\\Client\\Outputs\\output_naive.txt");
 
@@ -264,26 +507,51 @@ public class Client implements ClientCallbackInterface, Serializable {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        System.out.println("All query responses have been written to file.");
+        Log.info("All query responses have been written to file.");
+        lock.unlock();
+    }
+
+    /**
+     * Fetches a new copy of the routing table from the proxy-server and stores the server stubs in it. If the
+     * proxy-server cannot be reached the old copy is kept until it is too old to be used.
+     */
+    private void refreshRoutingTable() {
+        try {
+            RoutingTable table = proxyServer.getRoutingTable();
+            for (int server = 0; server < table.getNumServers(); server++) {
+                servers.put(table.getServerName(server), table.getServer(server));
+            }
+            routingTable = table;
+            routingTableTime = System.currentTimeMillis();
+        } catch (RemoteException e) {
+            Log.warn("Something went wrong when trying to refresh the routing table in client_" + clientNumber + " (" + e + ").");
+        }
     }
 
     /**
-     * Prompts the proxy-server to assign the client a server, then lookups the server address returned
-     * from the proxy-server.
+     * Assigns the client a server. The server is chosen locally from the routing table if the client has a recent
+     * copy of it. Otherwise the proxy-server is prompted to assign the client a server, and the stub for the server
+     * address returned from the proxy-server is looked up in the registry, unless it is already known.
      *
      * @param zone: the zone in which the client is in.
+     * @param key: the query's routing key, so queries for the same user go to the same server.
+     * @return String: the address of the assigned server.
+     * @throws Exception if the proxy-server or the registry cannot be reached.
      */
-    private void getServerAssignment(int zone) {
-        try {
-            // Ask the proxy-server for a server address
-            ServerAddress response = proxyServer.getServerAssignment(zone);
+    private String getServerAssignment(int zone, String key) throws Exception {
+        // Choose a server from the routing table if it is recent enough
+        RoutingTable table = routingTable;
+        if (table != null && System.currentTimeMillis() - routingTableTime < routingTableMaxAge) {
+            return table.getServerName(table.assignServer(zone, key));
+        }
 
-            // Lookup the returned server address
-            server = (ServerInterface) registry.lookup(response.address);
-        } catch (Exception e) {
-            System.out.println("\nError:\n" + e);
-            System.out.println("\nSomething went wrong when trying to get server assignment in client_" + clientNumber + ".");
-            System.exit(1);
+        // Otherwise ask the proxy-server for a server address
+        ServerAddress response = proxyServer.getServerAssignment(zone, key);
+
+        // Lookup the returned server address, unless it has been looked up before
+        if (!servers.containsKey(response.address)) {
+            servers.put(response.address, (ServerInterface) registry.lookup(response.address));
         }
+        return response.address;
     }
 }
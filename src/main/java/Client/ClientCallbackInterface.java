@@ -2,6 +2,7 @@ package Client;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import Shared.Query;
 
@@ -12,4 +13,7 @@ import Shared.Query;
 public interface ClientCallbackInterface extends Remote {
     // Method invoked by the servers to send a query response back to the client
     void sendQueryResponse(Query response) throws RemoteException;
+
+    // Method invoked by the servers to send several query responses back to the client with a single call
+    void sendQueryResponses(List<Query> responses) throws RemoteException;
 }
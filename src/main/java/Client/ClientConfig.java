@@ -0,0 +1,44 @@
+package Client;
+
+import Shared.QueryPriority;
+
+/**
+ * Settings for a client started by RunClients.
+ */
+public class ClientConfig {
+    // Whether repeated queries are answered from the client's cache, the maximum number of user profiles in the
+    // cache, and how long a cached user profile is used before it is fetched again (in milliseconds)
+    public Boolean clientCaching = true;
+    public long cacheCapacity = 1000;
+    public long cacheTimeToLive = 60000;
+
+    // Number of queries that can be outstanding at once, and the number of threads sending them
+    public int maxInFlight = 10000;
+    public int senderThreads = 8;
+
+    // Queries to the same server are collected for up to queryBatchWindow milliseconds, or until maxQueryBatchSize
+    // queries are waiting, and then sent with a single remote call
+    public long queryBatchWindow = 5;
+    public int maxQueryBatchSize = 64;
+
+    // The client refreshes its copy of the proxy-server's routing table every routingRefreshInterval milliseconds and
+    // chooses servers from it. A copy older than routingTableMaxAge milliseconds is not used, and the client falls back
+    // to asking the proxy-server for every query
+    public long routingRefreshInterval = 100;
+    public long routingTableMaxAge = 1000;
+
+    // A query rejected by an overloaded server is sent to another server after retryBackoff milliseconds times the
+    // number of rejections so far, and fails once it has been rejected maxRejections times
+    public long retryBackoff = 10;
+    public int maxRejections = 5;
+
+    // Priority class of the queries, and the time in milliseconds after which a query that has not been processed
+    // yet is dropped by the server (0 for no deadline)
+    public QueryPriority defaultPriority = QueryPriority.NORMAL;
+    public long defaultTimeout = 0;
+
+    // Time in milliseconds after which a submitted query fails with a TimeoutException if no response has arrived,
+    // for example because the server dropped the response or shut down. Queries with a longer deadline wait until
+    // their deadline instead
+    public long responseTimeout = 30000;
+}
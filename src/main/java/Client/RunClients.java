@@ -1,7 +1,11 @@
 package Client;
 
+import Shared.Log;
+
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 public class RunClients {
     Client client;
@@ -9,9 +13,11 @@ public class RunClients {
     Scanner scanner = null;
 
     /**
-     * Sends Queries to servers.
+     * Sends Queries to servers without waiting for each response, then waits for all of them to complete and writes
+     * the results to file.
      */
     public void sendQuery() {
+        ArrayList<CompletableFuture<?>> futures = new ArrayList<>();
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
             String[] data = line.split(" ");
@@ -19,18 +25,24 @@ public class RunClients {
             String query = data[0];
             int zone = Integer.parseInt(data[1].substring(5, data[1].length()));
 
-            client.processQuery(query, zone - 1);
+            futures.add(client.submitQuery(query, zone - 1));
         }
+
+        // Wait for every query to complete, also if some of them failed
+        CompletableFuture.allOf(futures.stream().map(future -> future.exceptionally(error -> null))
+                .toArray(CompletableFuture[]::new)).join();
+        client.conclude();
     }
 
     /**
      * Method for creating a client.
+     * @param config: settings for the client.
      */
-    public void runClient(int startPort) {
-        System.out.println("Starting client");
+    public void runClient(int startPort, ClientConfig config) {
+        Log.info("Starting client");
 
         // Create client object
-        client = new Client(0, startPort + 7);
+        client = new Client(0, startPort + 7, config);
 
         // Create scanner object
         try {
@@ -48,12 +60,16 @@ public class RunClients {
      * @param args runtime arguments.
      */
     public static void main(String[] args) {
-        // ports: registry(startPort), proxy-server(startPort + 1), server0-4(startPort + 2 : startPort + 5), client(startPort + 6)
+        // ports: registry(startPort), proxy-server(startPort + 1), servers(startPort + 2), client(startPort + 7)
         // This variable must be identical in RunServers and RunClients
         int startPort = 3197;
 
+        ClientConfig config = new ClientConfig();
+        config.clientCaching = true;
+
+        Log.info("Client caching is " + ((config.clientCaching) ? "enabled" : "disabled"));
         RunClients client = new RunClients();
-        client.runClient(startPort);
+        client.runClient(startPort, config);
         client.sendQuery();
     }
 }
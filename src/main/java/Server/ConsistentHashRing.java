@@ -0,0 +1,96 @@
+package Server;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hash rings assigning keys to the servers of each zone. Every server is placed on its zone's ring at a
+ * number of pseudo-random points (virtual nodes), and a key belongs to the first server found when walking the ring
+ * clockwise from the key's hash. Adding a server to a zone therefore only moves the keys that the new server takes over.
+ */
+public class ConsistentHashRing {
+    private static final int VIRTUAL_NODES = 64;
+
+    private final Topology topology;
+
+    // Per zone: the ring points in increasing order, and the server owning each point
+    private final long[][] points;
+    private final int[][] owners;
+
+    /**
+     * Constructor for the rings of a topology.
+     * @param topology: the zones and servers to place on the rings.
+     */
+    public ConsistentHashRing(Topology topology) {
+        this.topology = topology;
+        this.points = new long[topology.numZones][];
+        this.owners = new int[topology.numZones][];
+
+        for (int zone = 0; zone < topology.numZones; zone++) {
+            // Hash each virtual node of each server in the zone, keeping the server in the low bits so the points can
+            // be sorted together with their owners. The hash only depends on the zone and the server's place in the
+            // zone, so the existing servers keep their points when servers are added to the zones
+            int firstServer = topology.getFirstServer(zone);
+            long[] nodes = new long[topology.serversPerZone * VIRTUAL_NODES];
+            for (int replica = 0; replica < topology.serversPerZone; replica++) {
+                for (int node = 0; node < VIRTUAL_NODES; node++) {
+                    long hash = mix(((long) zone << 32 | replica) * 0x9e3779b97f4a7c15L + node);
+                    nodes[replica * VIRTUAL_NODES + node] = (hash & ~0xffffL) | replica;
+                }
+            }
+            Arrays.sort(nodes);
+
+            points[zone] = new long[nodes.length];
+            owners[zone] = new int[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                points[zone][i] = nodes[i] & ~0xffffL;
+                owners[zone][i] = firstServer + (int) (nodes[i] & 0xffffL);
+            }
+        }
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Lists the servers of a zone in the order of preference for a key: the server owning the key first, followed by
+     * the other servers in the order they are found when walking on along the ring.
+     * @param zone: the zone.
+     * @param key: the key, for example a userID.
+     * @return int[]: the zone's server numbers, most preferred first.
+     */
+    public int[] getPreferenceList(int zone, String key) {
+        long[] zonePoints = points[zone];
+        int[] zoneOwners = owners[zone];
+        int[] preference = new int[topology.serversPerZone];
+
+        // Find the first point at or after the key's hash, wrapping around to the start of the ring
+        int index = Arrays.binarySearch(zonePoints, mix(key.hashCode()) & ~0xffffL);
+        if (index < 0) { index = -index - 1; }
+
+        int found = 0;
+        for (int i = 0; i < zonePoints.length && found < preference.length; i++) {
+            int server = zoneOwners[(index + i) % zonePoints.length];
+            if (!contains(preference, found, server)) {
+                preference[found++] = server;
+            }
+        }
+        return preference;
+    }
+
+    private static boolean contains(int[] servers, int length, int server) {
+        for (int i = 0; i < length; i++) {
+            if (servers[i] == server) { return true; }
+        }
+        return false;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,57 @@
+package Server;
+
+/**
+ * Sends queries with the same routing key (the userID) to the same server in the client's zone, chosen by consistent
+ * hashing, so that the user's profile is found in that server's cache. If the preferred server's queue is at the
+ * threshold, the zone's other servers are tried in the order given by the hash ring. If all of them are at the
+ * threshold, or the query has no routing key, the fallback strategy chooses the server.
+ */
+public class ConsistentHashStrategy implements LoadBalancingStrategy {
+    private static final long serialVersionUID = 1L;
+
+    private LoadBalancingStrategy fallback;
+    private int threshold;
+
+    // Built from the topology the first time a server is selected. Not sent along with the strategy, since the client
+    // can just as well build it from the routing table's topology
+    private transient volatile ConsistentHashRing ring;
+
+    /**
+     * Constructor for the consistent hashing strategy.
+     * @param fallback: the strategy used when no server in the zone can take the query.
+     * @param threshold: the queue size at which a server is considered to be at maximum capacity.
+     */
+    public ConsistentHashStrategy(LoadBalancingStrategy fallback, int threshold) {
+        this.fallback = fallback;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int selectServer(int zone, ServerLoadView loads) {
+        return fallback.selectServer(zone, loads);
+    }
+
+    @Override
+    public int selectServer(int zone, String key, ServerLoadView loads) {
+        if (key == null) {
+            return fallback.selectServer(zone, loads);
+        }
+
+        // Try the zone's servers in order of preference for the key
+        for (int server : getRing(loads.getTopology()).getPreferenceList(zone, key)) {
+            if (loads.getQueueSize(server) < threshold) {
+                return server;
+            }
+        }
+        return fallback.selectServer(zone, loads);
+    }
+
+    private ConsistentHashRing getRing(Topology topology) {
+        ConsistentHashRing current = ring;
+        if (current == null || current.getTopology() != topology) {
+            current = new ConsistentHashRing(topology);
+            ring = current;
+        }
+        return current;
+    }
+}
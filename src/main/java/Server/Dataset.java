@@ -0,0 +1,726 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import Shared.Log;
+import Shared.PlayEvent;
+
+/**
+ * In-memory, column oriented copy of dataset.csv.
+ * The file is memory mapped and read once when the dataset is loaded, and every string field is interned into a dictionary so that
+ * each row is stored as a handful of ints. Queries run against these columns instead of rescanning the file.
+ *
+ * Each line in the file has the format: musicID,artist_1,...,artist_n,genre,userID,plays
+ *
+ * Once the rows are loaded, an aggregation stage precomputes the answers that the queries need (total plays per
+ * music, plays per (user, music), and the top musics and artists per user and per (user, genre)), so most queries
+ * are a dictionary lookup followed by an array read.
+ *
+ * The loaded dictionaries, columns, indexes and aggregates are written to a binary snapshot next to the file, which is
+ * memory mapped on the next start instead of parsing the file again. The columns are read from the read-only mapping
+ * in place, so their pages are shared by every process using the snapshot, and the rest is copied into the heap.
+ *
+ * New rows can be appended while the dataset is in use (see append). Readers must hold the read lock while they use
+ * the dataset, so that they never see a row that is only partly added.
+ */
+public class Dataset {
+    // Number of entries kept in the precomputed top lists
+    public static final int TOP_K = 3;
+
+    // Largest part of the dataset file that is memory mapped at once
+    private static final long MAX_MAPPING_SIZE = 1L << 30;
+
+    // Smallest part of the file parsed by a single task
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    // Smallest number of keys whose top lists are built by a single task
+    private static final int MIN_KEYS_PER_TASK = 1024;
+
+    // Snapshot file format. The version must be changed whenever the snapshot contents change
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x44534E50;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    // Dictionaries mapping the string fields to dense integer codes
+    private final StringDictionary musicDictionary = new StringDictionary();
+    private final StringDictionary artistDictionary = new StringDictionary();
+    private final StringDictionary genreDictionary = new StringDictionary();
+    private final StringDictionary userDictionary = new StringDictionary();
+
+    // One entry per row
+    private final IntList musicColumn = new IntList(1 << 16);
+    private final IntList genreColumn = new IntList(1 << 16);
+    private final IntList userColumn = new IntList(1 << 16);
+    private final IntList playsColumn = new IntList(1 << 16);
+
+    // The artists of row r are stored in artistColumn[artistOffsets[r] : artistOffsets[r + 1]]
+    private final IntList artistOffsets = new IntList(1 << 16);
+    private final IntList artistColumn = new IntList(1 << 16);
+
+    // Secondary indexes from userID, musicID and (userID, genre) to the rows containing them
+    private final RowIndex userIndex = new RowIndex();
+    private final RowIndex musicIndex = new RowIndex();
+    private final PairDictionary userGenreDictionary = new PairDictionary();
+    private final RowIndex userGenreIndex = new RowIndex();
+
+    // Precomputed aggregates, kept up to date as rows are added
+    private final IntList musicTotalPlays = new IntList();
+    private final PairDictionary userMusicDictionary = new PairDictionary();
+    private final IntList userMusicPlays = new IntList(1 << 16);
+
+    // Precomputed top lists, built by buildAggregates. Key k owns the entries [k * TOP_K : (k + 1) * TOP_K], and
+    // unused entries are -1
+    private int[] userTopMusic = new int[0];
+    private int[] userGenreTopMusic = new int[0];
+    private int[] userGenreTopArtists = new int[0];
+
+    // Scratch tallies used by append to rebuild the top lists, kept between appends (guarded by the write lock) so
+    // that an append only pays for the codes it touches instead of allocating tallies for every code
+    private final Tally appendMusicPlays = new Tally(0);
+    private final Tally appendArtistPlays = new Tally(0);
+
+    // Held by readers while they use the dataset, and by append while it adds rows
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Dataset() {
+        artistOffsets.add(0);
+    }
+
+    /**
+     * Loads the dataset from its snapshot if there is an up-to-date one, and otherwise parses the dataset file and
+     * writes a new snapshot for the next start. A snapshot is out of date if the dataset file's size or modification
+     * time differs from when the snapshot was written.
+     *
+     * @param filename: the filename of the dataset file.
+     * @return Dataset: the loaded dataset.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Dataset load(String filename) throws IOException {
+        Path file = Path.of(filename);
+        Path snapshot = Path.of(filename + SNAPSHOT_SUFFIX);
+
+        try {
+            Dataset dataset = readSnapshot(snapshot, file);
+            if (dataset != null) { return dataset; }
+        } catch (IOException e) {
+            Log.warn("Could not read the dataset snapshot " + snapshot + ", parsing the dataset file instead: " + e);
+        }
+
+        Dataset dataset = parse(file);
+
+        // The snapshot only speeds up the next start, so the dataset is still used if it cannot be written
+        try {
+            dataset.writeSnapshot(snapshot, file);
+        } catch (IOException e) {
+            Log.warn("Could not write the dataset snapshot " + snapshot + ": " + e);
+        }
+        return dataset;
+    }
+
+    /**
+     * Reads the dataset file once and builds the in-memory columns. The file is memory mapped and tokenized in place:
+     * fields are interned straight from the mapped bytes and play counts are parsed from them, so no String is created
+     * for a line unless it contains a value that has not been seen before.
+     * The file is split into chunks at line breaks, which are parsed in parallel on the common fork-join pool, each
+     * into its own dictionaries and columns. The chunks are then merged in file order, which gives the same codes and
+     * row numbers as parsing the file sequentially.
+     *
+     * @param file: the dataset file.
+     * @return Dataset: the loaded dataset.
+     * @throws IOException if the file cannot be read.
+     */
+    private static Dataset parse(Path file) throws IOException {
+        Dataset dataset = new Dataset();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // A mapping is limited to 2GB, so large files are mapped in parts ending at a line break
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(MAX_MAPPING_SIZE, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (position + length == size) ? (int) length : lastLineEnd(buffer, (int) length);
+
+                for (DatasetChunk chunk : parseChunks(buffer, end)) {
+                    dataset.merge(chunk);
+                }
+                position += end;
+            }
+        }
+        dataset.buildAggregates();
+        return dataset;
+    }
+
+    /**
+     * Writes the dataset to a snapshot file. The snapshot is written to a temporary file which is then moved into
+     * place, so a snapshot that is being written is never read by another server.
+     *
+     * @param snapshot: the snapshot file.
+     * @param file: the dataset file the snapshot is made from.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    private void writeSnapshot(Path snapshot, Path file) throws IOException {
+        Path temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SnapshotWriter out = new SnapshotWriter(channel);
+
+                // Header identifying the format and the dataset file
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(TOP_K);
+                out.writeLong(Files.size(file));
+                out.writeLong(Files.getLastModifiedTime(file).toMillis());
+
+                musicDictionary.writeTo(out);
+                artistDictionary.writeTo(out);
+                genreDictionary.writeTo(out);
+                userDictionary.writeTo(out);
+
+                musicColumn.writeTo(out);
+                genreColumn.writeTo(out);
+                userColumn.writeTo(out);
+                playsColumn.writeTo(out);
+                artistOffsets.writeTo(out);
+                artistColumn.writeTo(out);
+
+                userIndex.writeTo(out);
+                musicIndex.writeTo(out);
+                userGenreDictionary.writeTo(out);
+                userGenreIndex.writeTo(out);
+
+                musicTotalPlays.writeTo(out);
+                userMusicDictionary.writeTo(out);
+                userMusicPlays.writeTo(out);
+                out.writeInts(userTopMusic, userTopMusic.length);
+                out.writeInts(userGenreTopMusic, userGenreTopMusic.length);
+                out.writeInts(userGenreTopArtists, userGenreTopArtists.length);
+
+                out.flush();
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads a dataset from a snapshot file written by writeSnapshot.
+     *
+     * @param snapshot: the snapshot file.
+     * @param file: the dataset file the snapshot should be made from.
+     * @return Dataset: the loaded dataset, or null if there is no snapshot or it is out of date.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    private static Dataset readSnapshot(Path snapshot, Path file) throws IOException {
+        if (!Files.isRegularFile(snapshot)) { return null; }
+
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() == 0) { return null; }
+            SnapshotReader in = new SnapshotReader(channel);
+
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || in.readInt() != TOP_K
+                    || in.readLong() != Files.size(file) || in.readLong() != Files.getLastModifiedTime(file).toMillis()) {
+                return null;
+            }
+
+            Dataset dataset = new Dataset();
+            dataset.musicDictionary.readFrom(in);
+            dataset.artistDictionary.readFrom(in);
+            dataset.genreDictionary.readFrom(in);
+            dataset.userDictionary.readFrom(in);
+
+            // The columns are the bulk of the dataset, so they are read from the snapshot mapping in place. The pages are
+            // shared by every process using the snapshot, and are only loaded from disk when they are first read
+            dataset.musicColumn.mapFrom(in);
+            dataset.genreColumn.mapFrom(in);
+            dataset.userColumn.mapFrom(in);
+            dataset.playsColumn.mapFrom(in);
+            dataset.artistOffsets.mapFrom(in);
+            dataset.artistColumn.mapFrom(in);
+
+            dataset.userIndex.readFrom(in);
+            dataset.musicIndex.readFrom(in);
+            dataset.userGenreDictionary.readFrom(in);
+            dataset.userGenreIndex.readFrom(in);
+
+            dataset.musicTotalPlays.readFrom(in);
+            dataset.userMusicDictionary.readFrom(in);
+            dataset.userMusicPlays.readFrom(in);
+            dataset.userTopMusic = in.readInts();
+            dataset.userGenreTopMusic = in.readInts();
+            dataset.userGenreTopArtists = in.readInts();
+            return dataset;
+        }
+    }
+
+    /**
+     * Finds the end of the last complete line in the first length bytes of a buffer.
+     *
+     * @return int: the index after the last line break.
+     * @throws IOException if there is no line break.
+     */
+    private static int lastLineEnd(ByteBuffer buffer, int length) throws IOException {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') { return i + 1; }
+        }
+        throw new IOException("Line in the dataset file is longer than " + MAX_MAPPING_SIZE + " bytes.");
+    }
+
+    /**
+     * Splits buffer[0 : end] into chunks ending at line breaks and parses them in parallel.
+     *
+     * @return List<DatasetChunk>: the parsed chunks, in file order.
+     */
+    private static List<DatasetChunk> parseChunks(ByteBuffer buffer, int end) {
+        int numChunks = (int) Math.max(1, Math.min(4L * ForkJoinPool.getCommonPoolParallelism(), end / MIN_CHUNK_SIZE));
+
+        // Move each boundary forward to the start of the next line
+        int[] boundaries = new int[numChunks + 1];
+        boundaries[numChunks] = end;
+        for (int i = 1; i < numChunks; i++) {
+            int boundary = Math.max(boundaries[i - 1], (int) ((long) end * i / numChunks));
+            while (boundary < end && buffer.get(boundary - 1) != '\n') {
+                boundary++;
+            }
+            boundaries[i] = boundary;
+        }
+
+        return IntStream.range(0, numChunks).parallel()
+                .mapToObj(i -> new DatasetChunk(buffer, boundaries[i], boundaries[i + 1]))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Appends the rows of a chunk, translating the chunk's codes to the dataset's codes.
+     */
+    private void merge(DatasetChunk chunk) {
+        int[] musics = translate(chunk.musicDictionary, musicDictionary);
+        int[] artistCodes = translate(chunk.artistDictionary, artistDictionary);
+        int[] genres = translate(chunk.genreDictionary, genreDictionary);
+        int[] users = translate(chunk.userDictionary, userDictionary);
+
+        IntList artists = new IntList(4);
+        for (int row = 0; row < chunk.getRowCount(); row++) {
+            artists.clear();
+            for (int i = chunk.artistOffsets.get(row); i < chunk.artistOffsets.get(row + 1); i++) {
+                artists.add(artistCodes[chunk.artistColumn.get(i)]);
+            }
+            addRow(musics[chunk.musicColumn.get(row)], artists, genres[chunk.genreColumn.get(row)],
+                    users[chunk.userColumn.get(row)], chunk.playsColumn.get(row));
+        }
+    }
+
+    /**
+     * Interns every value of a chunk dictionary in a dataset dictionary.
+     *
+     * @return int[]: the dataset code of each chunk code.
+     */
+    private static int[] translate(StringDictionary from, StringDictionary to) {
+        int[] codes = new int[from.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = to.intern(from.get(code));
+        }
+        return codes;
+    }
+
+    /**
+     * Appends an interned row to the columns and adds it to the indexes.
+     */
+    private void addRow(int music, IntList artists, int genreCode, int user, int plays) {
+        int row = musicColumn.size();
+
+        musicColumn.add(music);
+        genreColumn.add(genreCode);
+        userColumn.add(user);
+        playsColumn.add(plays);
+        for (int i = 0; i < artists.size(); i++) {
+            artistColumn.add(artists.get(i));
+        }
+        artistOffsets.add(artistColumn.size());
+
+        userIndex.add(user, row);
+        musicIndex.add(music, row);
+        userGenreIndex.add(userGenreDictionary.intern(user, genreCode), row);
+
+        // Update the play totals
+        if (music == musicTotalPlays.size()) {
+            musicTotalPlays.add(0);
+        }
+        musicTotalPlays.set(music, musicTotalPlays.get(music) + plays);
+
+        int userMusic = userMusicDictionary.intern(user, music);
+        if (userMusic == userMusicPlays.size()) {
+            userMusicPlays.add(0);
+        }
+        userMusicPlays.set(userMusic, userMusicPlays.get(userMusic) + plays);
+    }
+
+    /**
+     * Appends new rows to the dataset and updates the indexes and aggregates incrementally. The play totals are
+     * updated as each row is added, and the top lists are rebuilt only for the users and (user, genre) pairs that
+     * have new rows, which gives the same top lists as loading the dataset again with the new rows.
+     *
+     * The whole batch is validated before anything is added, so an invalid event leaves the dataset unchanged.
+     *
+     * @param events: the new rows, in the order they should be added.
+     * @throws IllegalArgumentException if an event is not valid (see PlayEvent.validate).
+     */
+    public void append(List<PlayEvent> events) {
+        for (PlayEvent event : events) {
+            event.validate();
+        }
+
+        lock.writeLock().lock();
+        BitSet users = new BitSet();
+        BitSet userGenres = new BitSet();
+        try {
+            IntList artists = new IntList(4);
+            for (PlayEvent event : events) {
+                int music = musicDictionary.intern(event.musicID);
+                artists.clear();
+                for (String artist : event.artists) {
+                    artists.add(artistDictionary.intern(artist));
+                }
+                int genreCode = genreDictionary.intern(event.genre);
+                int user = userDictionary.intern(event.userID);
+
+                addRow(music, artists, genreCode, user, event.plays);
+                users.set(user);
+                userGenres.set(userGenreDictionary.lookup(user, genreCode));
+            }
+        } finally {
+            // The top lists are rebuilt for the rows that were added, also if adding the batch failed part way, so
+            // that they always agree with the totals and indexes
+            try {
+                rebuildTops(users, userGenres);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the top lists of the given users and (user, genre) pairs, growing the top tables for new keys.
+     */
+    private void rebuildTops(BitSet users, BitSet userGenres) {
+        userTopMusic = growTopTable(userTopMusic, userDictionary.size());
+        userGenreTopMusic = growTopTable(userGenreTopMusic, userGenreDictionary.size());
+        userGenreTopArtists = growTopTable(userGenreTopArtists, userGenreDictionary.size());
+
+        appendMusicPlays.ensureCapacity(musicDictionary.size());
+        appendArtistPlays.ensureCapacity(artistDictionary.size());
+        for (int user = users.nextSetBit(0); user >= 0; user = users.nextSetBit(user + 1)) {
+            buildUserTop(user, appendMusicPlays);
+        }
+        for (int pair = userGenres.nextSetBit(0); pair >= 0; pair = userGenres.nextSetBit(pair + 1)) {
+            buildUserGenreTop(pair, appendMusicPlays, appendArtistPlays);
+        }
+    }
+
+    /**
+     * Get the lock that readers hold while they use the dataset.
+     * @return Lock: the read lock.
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Get the lock held while rows are appended. Holding it lets the caller act on the new rows, for example to
+     * invalidate caches, before any reader can see them.
+     */
+    Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Aggregation stage run once all rows are loaded. Builds the top music list for every user, and the top music
+     * and top artist lists for every (user, genre) pair.
+     */
+    private void buildAggregates() {
+        userTopMusic = newTopTable(userDictionary.size());
+        userGenreTopMusic = newTopTable(userGenreDictionary.size());
+        userGenreTopArtists = newTopTable(userGenreDictionary.size());
+
+        // The top lists of a key only depend on the key's own rows, so ranges of keys are built in parallel
+        forEachRange(userDictionary.size(), this::buildUserTops);
+        forEachRange(userGenreDictionary.size(), this::buildUserGenreTops);
+    }
+
+    /**
+     * Splits the keys 0 to numKeys - 1 into ranges and runs an action for each range on the common fork-join pool.
+     */
+    private static void forEachRange(int numKeys, IntBinaryConsumer action) {
+        int numRanges = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), numKeys / MIN_KEYS_PER_TASK));
+        IntStream.range(0, numRanges).parallel().forEach(range ->
+                action.accept((int) ((long) numKeys * range / numRanges), (int) ((long) numKeys * (range + 1) / numRanges)));
+    }
+
+    private interface IntBinaryConsumer {
+        void accept(int from, int to);
+    }
+
+    /**
+     * Builds the top music lists of the users from (inclusive) to to (exclusive).
+     */
+    private void buildUserTops(int from, int to) {
+        Tally musicPlays = new Tally(musicDictionary.size());
+        for (int user = from; user < to; user++) {
+            buildUserTop(user, musicPlays);
+        }
+    }
+
+    /**
+     * Builds the top music list of a user, using the given empty tally.
+     */
+    private void buildUserTop(int user, Tally musicPlays) {
+        sumMusicPlays(userIndex.getRows(user), userIndex.getCount(user), musicPlays);
+        musicPlays.selectTop(userTopMusic, user);
+    }
+
+    /**
+     * Builds the top music and top artist lists of the (user, genre) pairs from (inclusive) to to (exclusive).
+     */
+    private void buildUserGenreTops(int from, int to) {
+        Tally musicPlays = new Tally(musicDictionary.size());
+        Tally artistPlays = new Tally(artistDictionary.size());
+        for (int pair = from; pair < to; pair++) {
+            buildUserGenreTop(pair, musicPlays, artistPlays);
+        }
+    }
+
+    /**
+     * Builds the top music and top artist lists of a (user, genre) pair, using the given empty tallies.
+     */
+    private void buildUserGenreTop(int pair, Tally musicPlays, Tally artistPlays) {
+        int[] rows = userGenreIndex.getRows(pair);
+        int count = userGenreIndex.getCount(pair);
+
+        sumMusicPlays(rows, count, musicPlays);
+        musicPlays.selectTop(userGenreTopMusic, pair);
+
+        for (int r = 0; r < count; r++) {
+            int row = rows[r];
+            for (int i = 0; i < getArtistCount(row); i++) {
+                artistPlays.add(getArtist(row, i), getPlays(row));
+            }
+        }
+        artistPlays.selectTop(userGenreTopArtists, pair);
+    }
+
+    private static int[] newTopTable(int keys) {
+        int[] table = new int[keys * TOP_K];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    /**
+     * Grows a top table to hold the given number of keys, with the entries of the new keys set to -1. The table is
+     * doubled so that appending rows for new keys one at a time stays cheap.
+     */
+    private static int[] growTopTable(int[] table, int keys) {
+        if (keys * TOP_K <= table.length) { return table; }
+        int oldLength = table.length;
+        int[] grown = Arrays.copyOf(table, Math.max(keys, 2 * oldLength / TOP_K) * TOP_K);
+        Arrays.fill(grown, oldLength, grown.length, -1);
+        return grown;
+    }
+
+    /**
+     * Sums the plays per music over a set of rows into the tally.
+     */
+    private void sumMusicPlays(int[] rows, int count, Tally musicPlays) {
+        for (int r = 0; r < count; r++) {
+            musicPlays.add(getMusic(rows[r]), getPlays(rows[r]));
+        }
+    }
+
+    /**
+     * Scratch space summing plays per code (music or artist code) over a set of rows. The touched list records the
+     * codes that have been added, in the order they were first added, so that only those are ranked and reset. A code
+     * is recorded once even if all its rows have zero plays.
+     */
+    private static class Tally {
+        private int[] values;
+        private boolean[] seen;
+        private final IntList touched = new IntList();
+
+        Tally(int numCodes) {
+            this.values = new int[numCodes];
+            this.seen = new boolean[numCodes];
+        }
+
+        /**
+         * Grows the tally to hold the given number of codes. The arrays are doubled, so that appending rows with new
+         * codes one at a time stays cheap. Must only be called while the tally is empty.
+         */
+        void ensureCapacity(int numCodes) {
+            if (numCodes <= values.length) { return; }
+            int length = Math.max(numCodes, 2 * values.length);
+            values = Arrays.copyOf(values, length);
+            seen = Arrays.copyOf(seen, length);
+        }
+
+        void add(int code, int plays) {
+            if (!seen[code]) {
+                seen[code] = true;
+                touched.add(code);
+            }
+            values[code] += plays;
+        }
+
+        /**
+         * Selects the TOP_K touched codes with the highest values and writes them to the key's entries in the top
+         * table, filling unused entries with -1. Ties keep the code that was touched first. The tally is empty
+         * afterwards.
+         */
+        void selectTop(int[] table, int key) {
+            int base = key * TOP_K;
+            int filled = 0;
+
+            for (int t = 0; t < touched.size(); t++) {
+                int code = touched.get(t);
+
+                // Find the position of the code in the sorted top list
+                int position = filled;
+                while (position > 0 && values[code] > values[table[base + position - 1]]) {
+                    position--;
+                }
+                if (position >= TOP_K) { continue; }
+
+                // Shift the smaller entries down one position, dropping the last one if the list is full
+                System.arraycopy(table, base + position, table, base + position + 1, Math.min(filled, TOP_K - 1) - position);
+                table[base + position] = code;
+                filled = Math.min(filled + 1, TOP_K);
+            }
+            Arrays.fill(table, base + filled, base + TOP_K, -1);
+
+            for (int t = 0; t < touched.size(); t++) {
+                values[touched.get(t)] = 0;
+                seen[touched.get(t)] = false;
+            }
+            touched.clear();
+        }
+    }
+
+    public int getRowCount() { return musicColumn.size(); }
+
+    // Column accessors
+    public int getMusic(int row) { return musicColumn.get(row); }
+    public int getGenre(int row) { return genreColumn.get(row); }
+    public int getUser(int row) { return userColumn.get(row); }
+    public int getPlays(int row) { return playsColumn.get(row); }
+    public int getArtistCount(int row) { return artistOffsets.get(row + 1) - artistOffsets.get(row); }
+    public int getArtist(int row, int i) { return artistColumn.get(artistOffsets.get(row) + i); }
+
+    // Index lookups. Only the first get*RowCount entries of the returned arrays are valid
+    public int[] getUserRows(int user) { return userIndex.getRows(user); }
+    public int getUserRowCount(int user) { return userIndex.getCount(user); }
+    public int[] getMusicRows(int music) { return musicIndex.getRows(music); }
+    public int getMusicRowCount(int music) { return musicIndex.getCount(music); }
+    public int[] getUserGenreRows(int user, int genre) { return userGenreIndex.getRows(userGenreDictionary.lookup(user, genre)); }
+    public int getUserGenreRowCount(int user, int genre) { return userGenreIndex.getCount(userGenreDictionary.lookup(user, genre)); }
+
+    // Precomputed aggregate lookups
+    public int getTotalPlays(int music) { return (music < 0) ? 0 : musicTotalPlays.get(music); }
+
+    /**
+     * Get the number of times a user has played a music.
+     * @param user: the user code, or -1.
+     * @param music: the music code, or -1.
+     * @return int: the number of plays, or 0 if the user has never played the music.
+     */
+    public int getUserPlays(int user, int music) {
+        int userMusic = userMusicDictionary.lookup(user, music);
+        return (userMusic < 0) ? 0 : userMusicPlays.get(userMusic);
+    }
+
+    /**
+     * Get the (up to) TOP_K most played musics of a user, most played first.
+     * @param user: the user code, or -1.
+     * @return int[]: the music codes.
+     */
+    public int[] getTopMusic(int user) {
+        return readTop(userTopMusic, user);
+    }
+
+    /**
+     * Get the (up to) TOP_K most played musics of a user within a genre, most played first.
+     * @param user: the user code, or -1.
+     * @param genre: the genre code, or -1.
+     * @return int[]: the music codes.
+     */
+    public int[] getTopMusic(int user, int genre) {
+        return readTop(userGenreTopMusic, userGenreDictionary.lookup(user, genre));
+    }
+
+    /**
+     * Get the (up to) TOP_K most played artists of a user within a genre, most played first.
+     * @param user: the user code, or -1.
+     * @param genre: the genre code, or -1.
+     * @return int[]: the artist codes.
+     */
+    public int[] getTopArtists(int user, int genre) {
+        return readTop(userGenreTopArtists, userGenreDictionary.lookup(user, genre));
+    }
+
+    private static int[] readTop(int[] table, int key) {
+        if (key < 0) { return new int[0]; }
+        int count = 0;
+        while (count < TOP_K && table[key * TOP_K + count] >= 0) {
+            count++;
+        }
+        return Arrays.copyOfRange(table, key * TOP_K, key * TOP_K + count);
+    }
+
+    // Dictionary lookups from strings to codes. These return -1 if the string does not occur in the dataset
+    public int getMusicCode(String musicID) { return musicDictionary.lookup(musicID); }
+    public int getGenreCode(String genre) { return genreDictionary.lookup(genre); }
+    public int getUserCode(String userID) { return userDictionary.lookup(userID); }
+
+    // Dictionary lookups from codes to strings
+    public String getMusicID(int music) { return musicDictionary.get(music); }
+    public String getArtistName(int artist) { return artistDictionary.get(artist); }
+    public String getGenreName(int genre) { return genreDictionary.get(genre); }
+    public String getUserID(int user) { return userDictionary.get(user); }
+
+    /**
+     * Get the genre of a music.
+     * @param music: the music code.
+     * @return String: the genre of the music.
+     */
+    public String getMusicGenre(int music) {
+        return genreDictionary.get(genreColumn.get(musicIndex.getRows(music)[0]));
+    }
+
+    /**
+     * Get the artists of a music.
+     * @param music: the music code.
+     * @return ArrayList<String>: the artists of the music.
+     */
+    public ArrayList<String> getMusicArtists(int music) {
+        int row = musicIndex.getRows(music)[0];
+        ArrayList<String> artists = new ArrayList<>(getArtistCount(row));
+        for (int i = 0; i < getArtistCount(row); i++) {
+            artists.add(artistDictionary.get(getArtist(row, i)));
+        }
+        return artists;
+    }
+}
@@ -0,0 +1,117 @@
+package Server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rows parsed from one part of the dataset file. Parts are parsed in parallel, each into its own chunk with its own
+ * dictionaries, and the chunks are then merged into the dataset in file order (see Dataset.load).
+ * The codes in a chunk's columns refer to the chunk's own dictionaries.
+ */
+class DatasetChunk {
+    final StringDictionary musicDictionary = new StringDictionary();
+    final StringDictionary artistDictionary = new StringDictionary();
+    final StringDictionary genreDictionary = new StringDictionary();
+    final StringDictionary userDictionary = new StringDictionary();
+
+    final IntList musicColumn = new IntList();
+    final IntList genreColumn = new IntList();
+    final IntList userColumn = new IntList();
+    final IntList playsColumn = new IntList();
+
+    // The artists of row r are stored in artistColumn[artistOffsets[r] : artistOffsets[r + 1]]
+    final IntList artistOffsets = new IntList();
+    final IntList artistColumn = new IntList();
+
+    /**
+     * Parses the lines in buffer[start : end], which must start at the beginning of a line and end after a line break
+     * or at the end of the file.
+     * @param buffer: the mapped dataset file.
+     * @param start: the index of the first byte of the chunk.
+     * @param end: the index after the last byte of the chunk.
+     */
+    DatasetChunk(ByteBuffer buffer, int start, int end) {
+        artistOffsets.add(0);
+        while (start < end) {
+            int lineEnd = start;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            parseLine(buffer, start, lineEnd);
+            start = next;
+        }
+    }
+
+    int getRowCount() {
+        return musicColumn.size();
+    }
+
+    /**
+     * Splits the line in buffer[start : end] into its fields and appends it as a row. Lines that do not end in a play
+     * count (such as a header or a blank line) are skipped.
+     */
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        int last = lastComma(buffer, start, end);
+        if (last < 0) { return; }
+        int plays = parsePlays(buffer, last + 1, end);
+        if (plays < 0) { return; }
+
+        int userStart = lastComma(buffer, start, last) + 1;
+        int genreStart = lastComma(buffer, start, userStart - 1) + 1;
+        int musicEnd = nextComma(buffer, start, end);
+        if (genreStart <= musicEnd) { return; }
+
+        // Everything between the musicID and the genre is an artist
+        int fieldStart = musicEnd + 1;
+        while (fieldStart < genreStart - 1) {
+            int fieldEnd = nextComma(buffer, fieldStart, end);
+            artistColumn.add(artistDictionary.intern(buffer, fieldStart, fieldEnd));
+            fieldStart = fieldEnd + 1;
+        }
+        artistOffsets.add(artistColumn.size());
+
+        musicColumn.add(musicDictionary.intern(buffer, start, musicEnd));
+        genreColumn.add(genreDictionary.intern(buffer, genreStart, userStart - 1));
+        userColumn.add(userDictionary.intern(buffer, userStart, last));
+        playsColumn.add(plays);
+    }
+
+    /**
+     * Get the index of the last comma in buffer[start : end], or -1 if there is none.
+     */
+    private static int lastComma(ByteBuffer buffer, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (buffer.get(i) == ',') { return i; }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the index of the first comma in buffer[start : end], or end if there is none.
+     */
+    private static int nextComma(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == ',') { return i; }
+        }
+        return end;
+    }
+
+    /**
+     * Parses the play count in buffer[start : end].
+     *
+     * @return int: the play count, or -1 if the field is not a number.
+     */
+    private static int parsePlays(ByteBuffer buffer, int start, int end) {
+        if (start >= end) { return -1; }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c < '0' || c > '9') { return -1; }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
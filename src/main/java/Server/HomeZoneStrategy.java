@@ -0,0 +1,74 @@
+package Server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the client to the least loaded server in its own zone if that server's queue is below a threshold. Otherwise
+ * the client is sent to the less loaded of the least loaded servers in the two neighboring zones, unless they are both
+ * at the threshold as well and the home server's queue is no longer than theirs.
+ */
+public class HomeZoneStrategy implements LoadBalancingStrategy {
+    private static final long serialVersionUID = 1L;
+
+    private int threshold;
+
+    /**
+     * Constructor for the home zone strategy.
+     * @param threshold: the queue size at which a server is considered to be at maximum capacity.
+     */
+    public HomeZoneStrategy(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int selectServer(int zone, ServerLoadView loads) {
+        // Refer client to closest geographically located server if it has capacity
+        int homeServer = leastLoadedServer(zone, loads);
+        int homeQueueSize = loads.getQueueSize(homeServer);
+        if (homeQueueSize < threshold) {
+            return homeServer;
+        }
+
+        // If we are referring the client to one of the servers in the geographically neighboring zones
+        Topology topology = loads.getTopology();
+        int neighborServer1 = leastLoadedServer(topology.getNeighborZone(zone, -1), loads);
+        int neighborServer2 = leastLoadedServer(topology.getNeighborZone(zone, 1), loads);
+        int queueSize1 = loads.getQueueSize(neighborServer1);
+        int queueSize2 = loads.getQueueSize(neighborServer2);
+
+        // If both of the neighboring servers are also at maximum capacity, we refer the user to the closest server,
+        // unless it is even more loaded (or avoided, because it has stopped reporting its load)
+        if (queueSize1 >= threshold && queueSize2 >= threshold && homeQueueSize <= Math.min(queueSize1, queueSize2)) {
+            return homeServer;
+        }
+        // If both the neighboring servers have equal workloads to each other, we choose one of them at random
+        if (queueSize1 == queueSize2) {
+            return (ThreadLocalRandom.current().nextBoolean()) ? neighborServer1 : neighborServer2;
+        }
+        // Otherwise we choose the neighboring server with the lowest workload
+        return (queueSize1 < queueSize2) ? neighborServer1 : neighborServer2;
+    }
+
+    /**
+     * Finds the server with the shortest queue in a zone. Servers with equally short queues are chosen at random, so
+     * the load is spread across the zone's servers.
+     */
+    private int leastLoadedServer(int zone, ServerLoadView loads) {
+        Topology topology = loads.getTopology();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstServer = topology.getFirstServer(zone);
+
+        int selectedServer = firstServer;
+        int ties = 1;
+        for (int server = firstServer + 1; server < firstServer + topology.serversPerZone; server++) {
+            int difference = loads.getQueueSize(server) - loads.getQueueSize(selectedServer);
+            if (difference < 0) {
+                selectedServer = server;
+                ties = 1;
+            } else if (difference == 0 && random.nextInt(++ties) == 0) {
+                selectedServer = server;
+            }
+        }
+        return selectedServer;
+    }
+}
@@ -0,0 +1,124 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints. Used for the dataset columns so that each cell costs four bytes instead of a
+ * boxed Integer or a String.
+ * A list read from a dataset snapshot with mapFrom starts out backed by the read-only snapshot mapping, and values
+ * added afterwards go to a heap array. The first set on a mapped value copies the mapped values to the heap.
+ */
+public class IntList {
+    private int[] data;
+    private int size = 0;
+
+    // Values [0 : mappedSize) are read from mapped, values [mappedSize : size) from data[0 : size - mappedSize)
+    private IntBuffer mapped = null;
+    private int mappedSize = 0;
+
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * Constructor for an int list.
+     * @param capacity: the initial capacity of the backing array.
+     */
+    public IntList(int capacity) {
+        this.data = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends a value to the end of the list, growing the backing array if necessary.
+     * @param value: the value to append.
+     */
+    public void add(int value) {
+        if (size - mappedSize == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++ - mappedSize] = value;
+    }
+
+    public int get(int index) {
+        return (index < mappedSize) ? mapped.get(index) : data[index - mappedSize];
+    }
+
+    public void set(int index, int value) {
+        if (index < mappedSize) { unmap(); }
+        data[index - mappedSize] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        mapped = null;
+        mappedSize = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of the list contents trimmed to the list size.
+     * @return int[]: the values in the list.
+     */
+    public int[] toArray() {
+        int[] values = new int[size];
+        if (mappedSize > 0) {
+            mapped.get(0, values, 0, mappedSize);
+        }
+        System.arraycopy(data, 0, values, mappedSize, size - mappedSize);
+        return values;
+    }
+
+    /**
+     * Copies the mapped values to the heap array.
+     */
+    private void unmap() {
+        int[] values = toArray();
+        data = Arrays.copyOf(values, Math.max(2 * size, 1));
+        mapped = null;
+        mappedSize = 0;
+    }
+
+    /**
+     * Writes the list contents to a dataset snapshot.
+     * @param out: the snapshot being written.
+     * @throws IOException
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        if (mappedSize > 0) {
+            out.writeInts(toArray(), size);
+        } else {
+            out.writeInts(data, size);
+        }
+    }
+
+    /**
+     * Replaces the list contents with values written by writeTo, copied to the heap.
+     * @param in: the snapshot being read.
+     * @throws IOException
+     */
+    void readFrom(SnapshotReader in) throws IOException {
+        int[] values = in.readInts();
+        data = (values.length == 0) ? new int[1] : values;
+        size = values.length;
+        mapped = null;
+        mappedSize = 0;
+    }
+
+    /**
+     * Replaces the list contents with values written by writeTo, which are read from the snapshot mapping instead of
+     * being copied. Used for lists that are rarely changed after loading, such as the dataset columns.
+     * @param in: the snapshot being read.
+     * @throws IOException
+     */
+    void mapFrom(SnapshotReader in) throws IOException {
+        mapped = in.mapInts();
+        mappedSize = mapped.limit();
+        size = mappedSize;
+        data = new int[16];
+    }
+}
@@ -0,0 +1,35 @@
+package Server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the client to the server with the lowest expected latency. The expected latency is the zone delay between the
+ * client and the server (see ServerQueryProcessor.checkConnectedZone), plus the time needed to work through the
+ * server's outstanding queries at its average service time. Ties are resolved at random.
+ */
+public class LatencyWeightedStrategy implements LoadBalancingStrategy {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int selectServer(int zone, ServerLoadView loads) {
+        Topology topology = loads.getTopology();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int selectedServer = -1;
+        long lowestLatency = Long.MAX_VALUE;
+        int ties = 0;
+        for (int server = 0; server < loads.getNumServers(); server++) {
+            // A server without a service time yet still counts its outstanding queries, so a stale server is avoided
+            long latency = ServerQueryProcessor.zoneDelay(zone, topology.getZone(server)) * 1000
+                    + (long) ServerLoadTable.outstanding(loads, server) * Math.max(1, loads.getServiceTime(server));
+            if (latency < lowestLatency) {
+                selectedServer = server;
+                lowestLatency = latency;
+                ties = 1;
+            } else if (latency == lowestLatency && random.nextInt(++ties) == 0) {
+                selectedServer = server;
+            }
+        }
+        return selectedServer;
+    }
+}
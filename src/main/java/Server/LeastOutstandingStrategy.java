@@ -0,0 +1,31 @@
+package Server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the client to the server with the fewest outstanding (queued or processing) queries. Ties are resolved in
+ * favor of the servers in the client's own zone, and then at random.
+ */
+public class LeastOutstandingStrategy implements LoadBalancingStrategy {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int selectServer(int zone, ServerLoadView loads) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int selectedServer = -1;
+        long lowestCost = Long.MAX_VALUE;
+        int ties = 0;
+        for (int server = 0; server < loads.getNumServers(); server++) {
+            long cost = ServerLoadTable.cost(loads, zone, server);
+            if (cost < lowestCost) {
+                selectedServer = server;
+                lowestCost = cost;
+                ties = 1;
+            } else if (cost == lowestCost && random.nextInt(++ties) == 0) {
+                selectedServer = server;
+            }
+        }
+        return selectedServer;
+    }
+}
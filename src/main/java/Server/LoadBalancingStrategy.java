@@ -0,0 +1,45 @@
+package Server;
+
+import java.io.Serializable;
+
+/**
+ * Policy used to pick the (processing) server that a client's query is sent to.
+ * Strategies are serializable, so the proxy-server can hand its strategy to the clients with the routing table.
+ */
+public interface LoadBalancingStrategy extends Serializable {
+    /**
+     * Selects a server for a client.
+     * @param zone: the zone in which the client is located.
+     * @param loads: the current load on each server.
+     * @return int: the number of the selected server.
+     */
+    int selectServer(int zone, ServerLoadView loads);
+
+    /**
+     * Selects a server for a query. Strategies that route on the query's routing key override this, the others ignore
+     * the key.
+     * @param zone: the zone in which the client is located.
+     * @param key: the query's routing key, or null if it has none.
+     * @param loads: the current load on each server.
+     * @return int: the number of the selected server.
+     */
+    default int selectServer(int zone, String key, ServerLoadView loads) {
+        return selectServer(zone, loads);
+    }
+
+    /**
+     * Creates a strategy from its name, as given when starting the servers.
+     * @param name: one of "consistent-hash", "home-zone", "power-of-two", "least-outstanding" or "latency-weighted".
+     * @return LoadBalancingStrategy: the strategy, or null if the name is unknown.
+     */
+    static LoadBalancingStrategy fromName(String name) {
+        return switch (name) {
+            case "consistent-hash" -> new ConsistentHashStrategy(new HomeZoneStrategy(10), 10);
+            case "home-zone" -> new HomeZoneStrategy(10);
+            case "power-of-two" -> new PowerOfTwoChoicesStrategy();
+            case "least-outstanding" -> new LeastOutstandingStrategy();
+            case "latency-weighted" -> new LatencyWeightedStrategy();
+            default -> null;
+        };
+    }
+}
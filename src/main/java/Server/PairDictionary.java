@@ -0,0 +1,120 @@
+package Server;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Dictionary that maps pairs of codes (such as a user code and a genre code) to dense integer codes starting at 0,
+ * so that composite keys can be used with a RowIndex. Pairs are stored in an open addressing hash table of primitive
+ * longs to avoid boxing a key object per lookup.
+ */
+public class PairDictionary {
+    private long[] keys = new long[1024];
+    private int[] codes = new int[1024];
+    private int size = 0;
+
+    public PairDictionary() {
+        Arrays.fill(codes, -1);
+    }
+
+    /**
+     * Returns the code for a pair, assigning it the next free code if it has not been seen before.
+     * @param first: the first code of the pair.
+     * @param second: the second code of the pair.
+     * @return int: the code for the pair.
+     */
+    public int intern(int first, int second) {
+        long key = pack(first, second);
+        int slot = findSlot(keys, codes, key);
+        if (codes[slot] >= 0) { return codes[slot]; }
+
+        int code = size++;
+        keys[slot] = key;
+        codes[slot] = code;
+
+        // Keep the load factor below 1/2 so that probe sequences stay short
+        if (size * 2 > keys.length) { resize(); }
+        return code;
+    }
+
+    /**
+     * Looks up the code for a pair without interning it.
+     * @return int: the code for the pair, or -1 if either code is -1 or the pair is not in the dictionary.
+     */
+    public int lookup(int first, int second) {
+        if (first < 0 || second < 0) { return -1; }
+        return codes[findSlot(keys, codes, pack(first, second))];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the pairs to a dataset snapshot in code order.
+     * @param out: the snapshot being written.
+     * @throws IOException
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        long[] pairs = new long[size];
+        for (int i = 0; i < keys.length; i++) {
+            if (codes[i] >= 0) { pairs[codes[i]] = keys[i]; }
+        }
+
+        out.writeInt(size);
+        for (long pair : pairs) {
+            out.writeLong(pair);
+        }
+    }
+
+    /**
+     * Interns the pairs written by writeTo into an empty dictionary, which gives every pair the code it had before.
+     * @param in: the snapshot being read.
+     * @throws IOException
+     */
+    void readFrom(SnapshotReader in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long pair = in.readLong();
+            intern((int) (pair >>> 32), (int) pair);
+        }
+    }
+
+    private static long pack(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds the slot containing the key, or the empty slot where it would be inserted.
+     */
+    private static int findSlot(long[] keys, int[] codes, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (mix(key) & mask);
+        while (codes[slot] >= 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private void resize() {
+        long[] newKeys = new long[keys.length * 2];
+        int[] newCodes = new int[codes.length * 2];
+        Arrays.fill(newCodes, -1);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (codes[i] < 0) { continue; }
+            int slot = findSlot(newKeys, newCodes, keys[i]);
+            newKeys[slot] = keys[i];
+            newCodes[slot] = codes[i];
+        }
+        keys = newKeys;
+        codes = newCodes;
+    }
+}
@@ -0,0 +1,38 @@
+package Server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two distinct servers at random from the client's zone and its two neighboring zones, and sends the client to
+ * the one with the fewest outstanding queries. Ties are resolved in favor of the client's own zone. Only sampling the
+ * nearby zones keeps most clients close to their zone, while a busy zone can still shed load to its neighbors.
+ */
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+    private static final long serialVersionUID = 1L;
+
+    // Zones sampled, as offsets from the client's zone
+    private static final int[] ZONE_OFFSETS = {0, -1, 1};
+
+    @Override
+    public int selectServer(int zone, ServerLoadView loads) {
+        Topology topology = loads.getTopology();
+        int numCandidates = Math.min(ZONE_OFFSETS.length, topology.numZones) * topology.serversPerZone;
+        if (numCandidates == 1) { return topology.getFirstServer(zone); }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(numCandidates);
+        int second = (first + 1 + random.nextInt(numCandidates - 1)) % numCandidates;
+        int firstServer = candidate(topology, zone, first);
+        int secondServer = candidate(topology, zone, second);
+
+        return (ServerLoadTable.cost(loads, zone, secondServer) < ServerLoadTable.cost(loads, zone, firstServer)) ? secondServer : firstServer;
+    }
+
+    /**
+     * Get the server with the given index among the servers of the client's zone and its neighboring zones.
+     */
+    private static int candidate(Topology topology, int zone, int index) {
+        int candidateZone = topology.getNeighborZone(zone, ZONE_OFFSETS[index / topology.serversPerZone]);
+        return topology.getFirstServer(candidateZone) + index % topology.serversPerZone;
+    }
+}
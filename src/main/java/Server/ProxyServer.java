@@ -1,37 +1,45 @@
 package Server;
 
+import Shared.Log;
 import Shared.ServerAddress;
 
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Random;
 
 public class ProxyServer extends Thread implements ProxyServerInterface{
-    private Random random = new Random();
-
     private Registry registry = null;
     private int port;
+    private Topology topology;
     private int numServers;
 
+    private String[] serverNames;
     private ServerInterface[] servers;
-    private int[] serverQueuesSizes;
-    private int[] serverAssignmentCounts;
+
+    // The servers' load, as pushed by the servers themselves
+    private ServerLoadTable serverLoads;
+
+    // Policy used to assign servers to clients
+    private LoadBalancingStrategy strategy;
 
     /**
      * Constructor for the proxy-server.
+     * @param topology: the zones and servers that the proxy-server will oversee.
      * @param port: the port that the proxy-server runs on.
+     * @param strategy: the load balancing strategy used to assign servers to clients.
+     * @param loadReportTimeout: the time in milliseconds after its last load report at which a server is avoided.
      */
-    public ProxyServer(int numServers, int port) {
-        this.numServers = numServers;
+    public ProxyServer(Topology topology, int port, LoadBalancingStrategy strategy, long loadReportTimeout) {
+        this.topology = topology;
+        this.numServers = topology.getNumServers();
         this.port = port;
+        this.strategy = strategy;
 
-        // Set up arrays to store the server references, the servers' workloads and the counters for how many clients
-        // have been assigned to each server (in intervals of 10)
+        // Set up arrays to store the server references and the servers' workloads
+        this.serverNames = new String[numServers];
         this.servers = new ServerInterface[numServers];
-        this.serverQueuesSizes = new int[numServers];
-        this.serverAssignmentCounts = new int[numServers];
+        this.serverLoads = new ServerLoadTable(topology, loadReportTimeout);
 
         startProxyServer();
     }
@@ -48,9 +56,10 @@ public class ProxyServer extends Thread implements ProxyServerInterface{
             // Get the registry
             registry = LocateRegistry.getRegistry("localhost", port - 1);
 
-            // Lookup the 5 processing servers
+            // Lookup the processing servers
             for (int i = 0; i < numServers; i++) {
-                servers[i] = (ServerInterface) registry.lookup("server_" + i);
+                serverNames[i] = "server_" + i;
+                servers[i] = (ServerInterface) registry.lookup(serverNames[i]);
             }
 
             // Bind the proxy-server to the registry
@@ -60,68 +69,60 @@ public class ProxyServer extends Thread implements ProxyServerInterface{
             System.out.println("\nSomething went wrong when trying to start proxy-server.");
             System.exit(1);
         }
-        System.out.println("proxy-server has started successfully.");
+        Log.info("proxy-server has started successfully.");
     }
 
-    private void updateAssignmentCount(int zone) {
-        serverAssignmentCounts[zone]++;
-
-        if (serverAssignmentCounts[zone] >= 10) {
-            new Thread(new ProxyServerQueueUpdater(this, zone)).start();
-            serverAssignmentCounts[zone] = 0;
-        }
+    /**
+     * Stores the load pushed by a (processing) server.
+     * @param server: the server number.
+     * @param queueSize: the number of queries waiting in the server's queue.
+     * @param inFlight: the number of queries the server is processing.
+     * @param serviceTime: the server's average time to process a query, in microseconds.
+     * @throws RemoteException
+     */
+    @Override
+    public void reportLoad(int server, int queueSize, int inFlight, long serviceTime) throws RemoteException {
+        serverLoads.update(server, queueSize, inFlight, serviceTime);
     }
 
     /**
-     *
-     * @param zone
+     * Takes a snapshot of the servers' stubs and load for the clients to route their queries with.
+     * @return RoutingTable: the routing table.
      * @throws RemoteException
      */
-    public void updateQueueData(int zone) throws RemoteException {
-        int queueSize = servers[zone].getQueueSize();
-        serverQueuesSizes[zone] = queueSize;
+    @Override
+    public RoutingTable getRoutingTable() throws RemoteException {
+        return new RoutingTable(strategy, serverNames, servers, serverLoads);
     }
 
     /**
-     * Finds a server for the client to send its query to according to the assignment text.
+     * Finds a server for the client to send its query to, using the proxy-server's load balancing strategy.
      * @param zone: the zone in which the client is located.
      * @return ServerInfo used in client.
-     * @throws RemoteException
+     * @throws RemoteException if the zone is not in the topology.
      */
     @Override
     public ServerAddress getServerAssignment(int zone) throws RemoteException {
-        if (zone < 0 || zone > 4) {
-            System.out.println("\nError:\nInvalid zone number: " + zone + ".");
-            System.exit(1);
-        }
-
-        // Refer client to closest geographically located server if it has capacity
-        if (serverQueuesSizes[zone] < 10) {
-            return new ServerAddress("server_" + zone);
-        }
-
-        // If we are referring the client to one of the geographically neighboring servers
-        int neighborServer1 = (zone - 1) % numServers;
-        int neighborServer2 = (zone + 1) % numServers;
-        int selectedServer;
+        return getServerAssignment(zone, null);
+    }
 
-        // If both of the neighboring servers are also at maximum capacity, we refer the user to the closest server
-        if (serverQueuesSizes[neighborServer1] >= 10 && serverQueuesSizes[neighborServer2] >= 10) {
-            selectedServer = zone;
-        }
-        // If both the neighboring servers have equal workloads to each other, we choose one of them at random
-        else if (serverQueuesSizes[neighborServer1] == serverQueuesSizes[neighborServer2]) {
-            selectedServer = (random.nextBoolean()) ? neighborServer1 : neighborServer2;
-        }
-        // Otherwise we choose the neighboring server with the lowest workload
-        else {
-            selectedServer = (serverQueuesSizes[neighborServer1] < serverQueuesSizes[neighborServer2]) ? neighborServer1 : neighborServer2;
+    /**
+     * Finds a server for the client to send a query to, routing on the query's key if the load balancing strategy
+     * does so.
+     * @param zone: the zone in which the client is located.
+     * @param key: the query's routing key, or null if it has none.
+     * @return ServerInfo used in client.
+     * @throws RemoteException if the zone is not in the topology.
+     */
+    @Override
+    public ServerAddress getServerAssignment(int zone, String key) throws RemoteException {
+        if (!topology.isValidZone(zone)) {
+            throw new RemoteException("Invalid zone number: " + zone + ".");
         }
 
-        // Before returning the server address, we update the server's assignment counter
-        updateAssignmentCount(zone);
+        int selectedServer = strategy.selectServer(zone, key, serverLoads);
 
-        System.out.println("proxy-server assigned client server: 'server_" + selectedServer + "'.");
+        Log.debug(() -> "proxy-server assigned client server: 'server_" + selectedServer + "'.");
         return new ServerAddress("server_" + selectedServer);
     }
 }
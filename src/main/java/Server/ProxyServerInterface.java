@@ -12,4 +12,13 @@ import Shared.ServerAddress;
 public interface ProxyServerInterface extends Remote {
     // Method invoked by the client objects to get an address and port for a (processing) server
     ServerAddress getServerAssignment(int zone) throws RemoteException;
+
+    // Same as above, for a query with a routing key (such as its userID) that the proxy-server can route on
+    ServerAddress getServerAssignment(int zone, String key) throws RemoteException;
+
+    // Method invoked by the client objects to get the servers' stubs and load, so they can choose a server themselves
+    RoutingTable getRoutingTable() throws RemoteException;
+
+    // Method invoked by the (processing) servers to push their current load to the proxy-server
+    void reportLoad(int server, int queueSize, int inFlight, long serviceTime) throws RemoteException;
 }
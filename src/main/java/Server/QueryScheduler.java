@@ -0,0 +1,123 @@
+package Server;
+
+import Shared.Query;
+import Shared.QueryPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of the queries waiting to be processed by a server, with one queue per priority class.
+ * Within a class, queries are taken earliest deadline first, and in arrival order among queries with the same (or no)
+ * deadline. Between the classes, queries are taken by stride scheduling: every class has a pass value that grows by
+ * 1 / weight each time a query is taken from it, and the next query comes from the waiting class with the lowest pass
+ * value. A class with twice the weight of another therefore gets twice the share of the processing threads while both
+ * have queries waiting, but no class is starved.
+ */
+public class QueryScheduler {
+    private final List<PriorityQueue<Entry>> queues;
+    private final double[] strides;
+    private final double[] passes;
+    private double virtualTime = 0;
+
+    private final int capacity;
+    private volatile int size = 0;
+    private long nextSequence = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Constructor for a query scheduler.
+     * @param capacity: the maximum number of waiting queries.
+     * @param weights: the weight of each priority class, in the order of QueryPriority.
+     */
+    public QueryScheduler(int capacity, int[] weights) {
+        int numClasses = QueryPriority.values().length;
+        this.capacity = capacity;
+        this.queues = new ArrayList<>(numClasses);
+        this.strides = new double[numClasses];
+        this.passes = new double[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            queues.add(new PriorityQueue<>());
+            strides[i] = 1.0 / Math.max(1, weights[i]);
+        }
+    }
+
+    /**
+     * Adds a query to the queue of its priority class, unless the scheduler is full.
+     * @param query: the query.
+     * @return boolean: true if the query was added.
+     */
+    public boolean offer(Query query) {
+        lock.lock();
+        try {
+            if (size >= capacity) { return false; }
+
+            int priority = query.priority.ordinal();
+            // A class that had no waiting queries starts from the current virtual time, so it cannot save up a burst
+            if (queues.get(priority).isEmpty()) {
+                passes[priority] = Math.max(passes[priority], virtualTime);
+            }
+            queues.get(priority).add(new Entry(query, nextSequence++));
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next query to process, waiting for one to arrive if all the queues are empty.
+     * @return Query: the query.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Query take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+
+            // Take from the waiting class with the lowest pass value
+            int selected = -1;
+            for (int i = 0; i < queues.size(); i++) {
+                if (!queues.get(i).isEmpty() && (selected == -1 || passes[i] < passes[selected])) {
+                    selected = i;
+                }
+            }
+            virtualTime = passes[selected];
+            passes[selected] += strides[selected];
+            size--;
+            return queues.get(selected).poll().query;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final Query query;
+        final long deadline;
+        final long sequence;
+
+        Entry(Query query, long sequence) {
+            this.query = query;
+            this.deadline = (query.deadline == 0) ? Long.MAX_VALUE : query.deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byDeadline = Long.compare(deadline, other.deadline);
+            return (byDeadline != 0) ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+}
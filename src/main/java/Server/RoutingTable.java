@@ -0,0 +1,104 @@
+package Server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Snapshot of the proxy-server's routing information: the (processing) servers' stubs and their load when the
+ * snapshot was taken, together with the proxy-server's load balancing strategy. Clients cache the snapshot and use it
+ * to choose a server themselves, without asking the proxy-server for every query.
+ * Assignments made from the snapshot are counted as queued queries, so that a client does not send all of its queries
+ * to the same server until the next snapshot arrives.
+ */
+public class RoutingTable implements ServerLoadView, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final LoadBalancingStrategy strategy;
+    private final Topology topology;
+    private final String[] serverNames;
+    private final ServerInterface[] servers;
+    private final int[] queueSizes;
+    private final int[] inFlight;
+    private final long[] serviceTimes;
+
+    // Queries assigned from this snapshot, and whether the server has rejected a query since the snapshot was taken.
+    // Only kept locally
+    private transient AtomicIntegerArray assigned;
+    private transient AtomicIntegerArray overloaded;
+
+    // Queue size reported for a server that has rejected a query, so that the strategies avoid it
+    private static final int OVERLOADED_QUEUE_SIZE = Integer.MAX_VALUE / 4;
+
+    /**
+     * Constructor for a routing table.
+     * @param strategy: the load balancing strategy used to choose a server.
+     * @param serverNames: the registry names of the servers.
+     * @param servers: the servers' stubs.
+     * @param loads: the servers' current load.
+     */
+    public RoutingTable(LoadBalancingStrategy strategy, String[] serverNames, ServerInterface[] servers, ServerLoadView loads) {
+        int numServers = loads.getNumServers();
+        this.strategy = strategy;
+        this.topology = loads.getTopology();
+        this.serverNames = serverNames;
+        this.servers = servers;
+        this.queueSizes = new int[numServers];
+        this.inFlight = new int[numServers];
+        this.serviceTimes = new long[numServers];
+        for (int server = 0; server < numServers; server++) {
+            queueSizes[server] = loads.getQueueSize(server);
+            inFlight[server] = loads.getInFlight(server);
+            serviceTimes[server] = loads.getServiceTime(server);
+        }
+        this.assigned = new AtomicIntegerArray(numServers);
+        this.overloaded = new AtomicIntegerArray(numServers);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        assigned = new AtomicIntegerArray(queueSizes.length);
+        overloaded = new AtomicIntegerArray(queueSizes.length);
+    }
+
+    /**
+     * Chooses a server for a client using the table's strategy, and counts the assignment as a queued query.
+     * @param zone: the zone in which the client is located.
+     * @param key: the query's routing key, or null if it has none.
+     * @return int: the number of the selected server.
+     * @throws IllegalArgumentException if the zone is not in the topology.
+     */
+    public int assignServer(int zone, String key) {
+        if (!topology.isValidZone(zone)) {
+            throw new IllegalArgumentException("Invalid zone number: " + zone + ".");
+        }
+        int server = strategy.selectServer(zone, key, this);
+        assigned.incrementAndGet(server);
+        return server;
+    }
+
+    /**
+     * Records that a server has rejected a query because it is overloaded, so that it is not assigned again from this
+     * snapshot.
+     * @param serverName: the registry name of the server.
+     */
+    public void markOverloaded(String serverName) {
+        for (int server = 0; server < serverNames.length; server++) {
+            if (serverNames[server].equals(serverName)) {
+                overloaded.set(server, 1);
+            }
+        }
+    }
+
+    // Getters
+    public Topology getTopology() { return topology; }
+    public int getNumServers() { return queueSizes.length; }
+    public int getQueueSize(int server) {
+        return (overloaded.get(server) == 1) ? OVERLOADED_QUEUE_SIZE : queueSizes[server] + assigned.get(server);
+    }
+    public int getInFlight(int server) { return inFlight[server]; }
+    public long getServiceTime(int server) { return serviceTimes[server]; }
+    public String getServerName(int server) { return serverNames[server]; }
+    public ServerInterface getServer(int server) { return servers[server]; }
+}
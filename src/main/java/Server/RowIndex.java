@@ -0,0 +1,95 @@
+package Server;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Secondary index mapping a dense key code (such as a user code from a StringDictionary) to the offsets of the rows
+ * containing that key. The row offsets for each key are kept in a compact int array that is grown as rows are added,
+ * so only the first getCount(key) entries of getRows(key) are valid.
+ */
+public class RowIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private int[][] rows = new int[1024][];
+    private int[] counts = new int[1024];
+
+    /**
+     * Adds a row offset to the entry for a key.
+     * @param key: the key code.
+     * @param row: the row offset.
+     */
+    public void add(int key, int row) {
+        if (key >= rows.length) {
+            int capacity = Math.max(rows.length * 2, key + 1);
+            rows = Arrays.copyOf(rows, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        int[] keyRows = rows[key];
+        if (keyRows == null) {
+            keyRows = new int[4];
+            rows[key] = keyRows;
+        } else if (counts[key] == keyRows.length) {
+            keyRows = Arrays.copyOf(keyRows, keyRows.length * 2);
+            rows[key] = keyRows;
+        }
+        keyRows[counts[key]++] = row;
+    }
+
+    /**
+     * Get the row offsets for a key. Only the first getCount(key) entries are valid.
+     * @param key: the key code, or -1 for a key that does not exist.
+     * @return int[]: the row offsets for the key.
+     */
+    public int[] getRows(int key) {
+        if (key < 0 || key >= rows.length || rows[key] == null) { return EMPTY; }
+        return rows[key];
+    }
+
+    /**
+     * Get the number of rows for a key.
+     * @param key: the key code, or -1 for a key that does not exist.
+     * @return int: the number of rows containing the key.
+     */
+    public int getCount(int key) {
+        if (key < 0 || key >= counts.length) { return 0; }
+        return counts[key];
+    }
+
+    /**
+     * Writes the row offsets of every key to a dataset snapshot.
+     * @param out: the snapshot being written.
+     * @throws IOException
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        int numKeys = rows.length;
+        while (numKeys > 0 && counts[numKeys - 1] == 0) {
+            numKeys--;
+        }
+
+        out.writeInt(numKeys);
+        for (int key = 0; key < numKeys; key++) {
+            out.writeInts(getRows(key), counts[key]);
+        }
+    }
+
+    /**
+     * Replaces the index contents with row offsets written by writeTo. The arrays are sized to the row counts, and are
+     * grown by add as usual if rows are added later.
+     * @param in: the snapshot being read.
+     * @throws IOException
+     */
+    void readFrom(SnapshotReader in) throws IOException {
+        // Each key's rows take up at least their length
+        int numKeys = in.readLength(Integer.BYTES);
+        rows = new int[Math.max(numKeys, 1)][];
+        counts = new int[rows.length];
+
+        for (int key = 0; key < numKeys; key++) {
+            int[] keyRows = in.readInts();
+            rows[key] = (keyRows.length == 0) ? null : keyRows;
+            counts[key] = keyRows.length;
+        }
+    }
+}
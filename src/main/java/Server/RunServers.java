@@ -1,5 +1,7 @@
 package Server;
 
+import Shared.Log;
+
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -10,48 +12,74 @@ public class RunServers {
 
     /**
      * Method for initializing the proxy-server instance.
-     * @param numServers: number of servers that the proxy-server will oversee.
+     * @param topology: the zones and servers that the proxy-server will oversee.
+     * @param strategy: the load balancing strategy used to assign servers to clients.
+     * @param config: settings for the servers, holding the load reporting intervals.
      */
-    public void createProxyServer(int numServers, int startPort) {
+    public void createProxyServer(Topology topology, int startPort, LoadBalancingStrategy strategy, ServerConfig config) {
         // Start the proxy-server and bind it to the registry
-        this.proxyServer = new ProxyServer(numServers, startPort + 1);
+        this.proxyServer = new ProxyServer(topology, startPort + 1, strategy, config.loadReportTimeout);
     }
 
     /**
-     * Method for initializing 5 server instances.
-     * @param numServers: number of servers to be initialized.
+     * Method for initializing the server instances, serversPerZone in each zone. All servers are exported on the same
+     * port, so the number of servers does not change the ports used.
+     * @param topology: the zones and servers to be initialized.
+     * @param config: settings for the servers.
      */
-    public void createServers(int numServers, int startPort, Boolean serverCaching) {
-        System.out.println("Starting " + numServers + " servers ...");
+    public void createServers(Topology topology, int startPort, ServerConfig config) {
+        int numServers = topology.getNumServers();
+        Log.info("Starting " + numServers + " servers (" + topology + ") ...");
 
         servers = new Server[numServers];
         try {
             // Create the registry
             registry = LocateRegistry.createRegistry(startPort);
 
-            // Start the 5 processing servers and bind them to the registry
+            // Start the processing servers and bind them to the registry
             for (int i = 0; i < numServers; i++) {
-                servers[i] = new Server(registry, i, startPort + 2 + i, serverCaching);
+                servers[i] = new Server(registry, i, topology.getZone(i), startPort + 2, config);
             }
         } catch (Exception e) {
             System.out.println("Error: " + e);
             System.out.println("Something went wrong when trying to set up and run (processing) servers.");
             System.exit(1);
         }
-        System.out.println("All (processing) servers have started successfully.");
+        Log.info("All (processing) servers have started successfully.");
     }
 
     public static void main(String[] args) {
-        int numServers = 5;
-        Boolean serverCaching = true;
+        // The number of zones must match the zones used in the client queries. More servers per zone can be added to
+        // scale out, and can be given as the second argument
+        Topology topology = new Topology();
+        topology.numZones = 5;
+        topology.serversPerZone = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        int numServers = topology.getNumServers();
+
+        ServerConfig config = new ServerConfig();
+        config.serverCaching = true;
+
+        // By default the cores are split evenly between servers
+        config.processingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / numServers);
 
-        // ports: registry(startPort), proxy-server(startPort + 1), server0-4(startPort + 2 : startPort + 5), client(startPort + 6)
+        // ports: registry(startPort), proxy-server(startPort + 1), servers(startPort + 2), client(startPort + 7)
         // This variable must be identical in RunServers and RunClients
         int startPort = 3197;
 
-        System.out.println("Server caching is " + ((serverCaching) ? "enabled" : "disabled"));
+        // The load balancing strategy can be given as the first argument. By default each user's queries are sent to
+        // the same server in the zone, falling back to the home zone policy
+        String strategyName = (args.length > 0) ? args[0] : "consistent-hash";
+        LoadBalancingStrategy strategy = LoadBalancingStrategy.fromName(strategyName);
+        if (strategy == null) {
+            System.out.println("\nError:\nUnknown load balancing strategy: " + strategyName + ".");
+            System.out.println("Valid strategies are: consistent-hash, home-zone, power-of-two, least-outstanding, latency-weighted.");
+            System.exit(1);
+        }
+
+        Log.info("Server caching is " + ((config.serverCaching) ? "enabled" : "disabled"));
         RunServers startServers = new RunServers();
-        startServers.createServers(numServers, startPort, serverCaching);
-        startServers.createProxyServer(numServers, startPort);
+        startServers.createServers(topology, startPort, config);
+        Log.info("Load balancing strategy is " + strategyName);
+        startServers.createProxyServer(topology, startPort, strategy, config);
     }
 }
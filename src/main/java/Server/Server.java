@@ -3,40 +3,106 @@ package Server;
 import Client.ClientCallbackInterface;
 import Shared.*;
 
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Server implements ServerInterface {
     private Registry registry = null;
 
+    private int serverNumber;
     private int serverZone;
     private int port;
+    private ServerConfig config;
 
     private Boolean serverCaching;
-    private LinkedList<UserProfile> cache = new LinkedList<>();
 
-    ConcurrentLinkedQueue<Query> queue = new ConcurrentLinkedQueue<>();
+    // Cache of user profiles keyed by userID
+    private LRUCache<String, UserProfile> cache;
+
+    // Caches of query results for the getTimesPlayed queries, keyed by musicID and by "userID,musicID"
+    private LRUCache<String, Integer> timesPlayedCache;
+    private LRUCache<String, Integer> timesPlayedByUserCache;
+
+    // Queues of queries waiting to be processed, per priority class and bounded by the high watermark. Once the queue
+    // has been full, the server rejects queries until the queue has drained to the low watermark
+    QueryScheduler queue;
+    private volatile boolean overloaded = false;
+
+    // Set when the server is shut down, after which it rejects new queries
+    private volatile boolean stopped = false;
+
+    // Queries waiting for an identical query that is being processed, keyed by canonical key. A key is present while
+    // its query is being processed. Identical queries attach when they arrive or when they are fetched from the queue
+    private ConcurrentHashMap<String, ArrayList<Query>> coalescedQueries = new ConcurrentHashMap<>();
+
+    // Collects responses per client number so that they can be sent back in batches
+    private Batcher<Integer, Query> responseBatcher;
+
+    // Threads sending the response batches, so that a slow client only holds up its own responses
+    private ExecutorService responseSenders;
+
+    // Load statistics reported to the proxy-server: the number of queries being processed, and the exponentially
+    // weighted moving average of the time to process a query in microseconds
+    private AtomicInteger inFlight = new AtomicInteger();
+    private AtomicLong serviceTime = new AtomicLong();
+    private ServerLoadReporter loadReporter;
+    private ScheduledExecutorService loadReportScheduler;
+
+    // Client callback stubs by client number, so each client is only looked up in the registry once
+    private ConcurrentHashMap<Integer, ClientCallbackInterface> clientStubs = new ConcurrentHashMap<>();
 
     private final String dataFilename = "src\\main\\java\\Server\\Data\\dataset.csv"; // Windows
     //private final String dataFilename = "src/main/java/Server/Data/dataset.csv"; // MAC
 
+    // In-memory copy of the dataset, shared by all the servers in the JVM (see SharedDataset)
+    private SharedDataset datasetHandle = null;
+    private Dataset dataset = null;
+
+    private final ArrayList<Thread> processingThreads = new ArrayList<>();
+
     /**
      * Constructor for server.
      *
-     * @param serverZone: which geographical zone the server is in.
-     * @param port:       the port the server is running on.
+     * @param serverNumber: unique number of the server, across all zones.
+     * @param serverZone:   which geographical zone the server is in.
+     * @param port:         the port the server is running on.
+     * @param config:       settings for the server.
      */
-    public Server(Registry registry, int serverZone, int port, Boolean serverCaching) {
+    public Server(Registry registry, int serverNumber, int serverZone, int port, ServerConfig config) {
         this.registry = registry;
+        this.serverNumber = serverNumber;
         this.serverZone = serverZone;
         this.port = port;
-        this.serverCaching = serverCaching;
+        this.config = config;
+        this.queue = new QueryScheduler(config.queueHighWatermark, config.priorityWeights);
+        this.serverCaching = config.serverCaching;
+        this.responseSenders = Executors.newFixedThreadPool(config.responseThreads, runnable -> {
+            Thread thread = new Thread(runnable, "server_" + serverNumber + "-response-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.responseBatcher = new Batcher<>("server_" + serverNumber + "-responses", config.responseBatchWindow,
+                config.maxResponseBatchSize, (clientNumber, responses) ->
+                        responseSenders.execute(() -> sendResponses(clientNumber, responses)));
+        createCaches(config.cacheCapacity, config.cacheCapacityInBytes);
+        loadDataset();
         startServer();
-        startProcessingThread();
+        startProcessingThreads();
+        startLoadReporting();
     }
 
     /**
@@ -48,249 +114,268 @@ public class Server implements ServerInterface {
             UnicastRemoteObject.exportObject(this, port);
 
             // Bind the server to the registry
-            registry.bind("server_" + serverZone, this);
+            registry.bind("server_" + serverNumber, this);
         } catch (Exception e) {
             System.out.println("\nError:\n" + e);
-            System.out.println("\nSomething went wrong when trying to start server_" + serverZone + ".");
+            System.out.println("\nSomething went wrong when trying to start server_" + serverNumber + ".");
             System.exit(1);
         }
-        System.out.println("server_" + serverZone + " has started successfully.");
+        Log.info("server_" + serverNumber + " has started successfully.");
     }
 
     /**
+     * Creates the server caches. Each cache gets the full capacity.
      *
-     * @param query
-     * @return
+     * @param cacheCapacity: the capacity of each cache, in entries or in estimated bytes.
+     * @param cacheCapacityInBytes: whether the cache capacity is given in estimated bytes instead of entries.
      */
-    public boolean searchCache(GetTimesPlayedByUserQuery query) {
-        // Find user profile object in list
-        UserProfile tempUser = cache.stream().filter(user -> query.userID.equals(user.userID)).findFirst().orElse(null);
-        if(tempUser != null){
-            // Default value -1
-            int cachedResult = -1;
-            // Scan the entire favouriteMusics hashmap to see if it exists there.
-            // For each favouriteMusics object (genre).
-            for(Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : tempUser.favoriteMusics.entrySet()){
-                // For each favouriteMusics object value (songs in hashmap by genre key).
-                for(Map.Entry<MusicProfile, Integer> songEntry: genreEntry.getValue().entrySet()){
-                    // Check if the musicID is present.
-                    if(songEntry.getKey().musicID.equals(query.musicID)){
-                        cachedResult = songEntry.getValue();
-                    }
-                }
-            }
-            if(cachedResult >= 0) {
-                query.result = cachedResult;
-                return true;
-            }
+    private void createCaches(long cacheCapacity, Boolean cacheCapacityInBytes) {
+        if (cacheCapacityInBytes) {
+            cache = new LRUCache<>(cacheCapacity, UserProfile::estimateSize);
+            // Estimated size of a map entry holding a short key and a boxed int
+            timesPlayedCache = new LRUCache<>(cacheCapacity, count -> 128);
+            timesPlayedByUserCache = new LRUCache<>(cacheCapacity, count -> 144);
+        } else {
+            cache = new LRUCache<>(cacheCapacity);
+            timesPlayedCache = new LRUCache<>(cacheCapacity);
+            timesPlayedByUserCache = new LRUCache<>(cacheCapacity);
         }
-        return false;
+    }
 
+    /**
+     * Gets the in-memory dataset so that queries do not have to read the file. The dataset is only loaded by the first
+     * server in the JVM, the other servers share its copy.
+     */
+    private void loadDataset() {
+        try {
+            datasetHandle = SharedDataset.acquire(dataFilename, this);
+            dataset = datasetHandle.get();
+        } catch (Exception e) {
+            System.out.println("\nError:\n" + e);
+            System.out.println("\nSomething went wrong when trying to load the dataset in server_" + serverNumber + ".");
+            System.exit(1);
+        }
+        Log.info("server_" + serverNumber + " is using the shared dataset with " + dataset.getRowCount() + " rows ("
+                + datasetHandle.getReferences() + " servers).");
     }
 
     /**
-     *
-     * @param query
-     * @return
+     * Stops the server: removes it from the registry, stops its threads and releases its handle to the shared dataset.
+     * New queries are rejected as overloaded from the start of the shutdown, so clients send them to another server.
+     * Queries that are still waiting in the queue are not processed, but the responses of processed queries are sent.
      */
-    public boolean searchCache(GetTimesPlayedQuery query) {
-        int cachedResult = 0;
-        for(UserProfile user : cache){
-            for(Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : user.favoriteMusics.entrySet()){
-                // For each favouriteMusics object value (songs in hashmap by genre key).
-                for(Map.Entry<MusicProfile, Integer> songEntry: genreEntry.getValue().entrySet()){
-                    // Check if the musicID is present.
-                    System.err.println(songEntry.getKey().musicID);
-                    if(songEntry.getKey().musicID.equals(query.musicID)){
-                        cachedResult += songEntry.getValue();
-                    }
-                }
+    public void shutdown() {
+        // Stop accepting queries before stopping the threads they use
+        stopped = true;
+        try {
+            registry.unbind("server_" + serverNumber);
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (Exception e) {
+            Log.error("Something went wrong when trying to unbind server_" + serverNumber + ".", e);
+        }
+
+        for (Thread thread : processingThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : processingThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
-        if(cachedResult > 0) {
-            //System.err.println("CACHED " + cachedResult);
-            query.result = cachedResult;
-            return true;
+        // Send the remaining responses, then stop the response and load report threads
+        responseBatcher.shutdown(config.shutdownTimeout);
+        responseSenders.shutdown();
+        try {
+            responseSenders.awaitTermination(config.shutdownTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        loadReportScheduler.shutdownNow();
 
-        return false;
+        datasetHandle.release(this);
+        Log.info("server_" + serverNumber + " has stopped.");
     }
 
     /**
+     * Tries to answer a getTimesPlayedByUser query from the cache. The cached (user, music) results are checked first,
+     * then the user's cached profile.
      *
-     * @param query
-     * @return
+     * @param query: the query to answer.
+     * @return boolean: true on a cache hit, in which case the query result has been set.
      */
-    public boolean searchCache(GetTopArtistsByUserGenreQuery query) {
-        String userID = query.userID;
-        String genre = query.genre;
-        boolean hit = false;
-
-        // Check if cache miss, and return false without doing any further work if so
-        UserProfile profile = null;
-        for (UserProfile userProfile : cache) {
-            if (Objects.equals(userProfile.userID, userID)) {
-                profile = userProfile;
-
-                // Check that the cache can provide an answer to the query. We have a cache miss if it cannot
-                hit = (profile.favoriteMusics.containsKey(genre));
-                break;
-            }
-        }
-        if (!hit) { return false; }
-
-        // Find the query result from the cache
-        HashMap<String, Integer> artistPlayCounts = new HashMap<>();
-
-        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : profile.favoriteMusics.entrySet()) {
-            if (!Objects.equals(genreEntry.getKey(), genre)) { continue; }
-            for (Map.Entry<MusicProfile, Integer> entry : genreEntry.getValue().entrySet()) {
-                int plays = entry.getValue();
-                ArrayList<String> artists = entry.getKey().artists;
-                for (String artist : artists) {
-                    if (artistPlayCounts.containsKey(artist)) {
-                        artistPlayCounts.put(artist, artistPlayCounts.get(artist) + plays);
-                    } else {
-                        artistPlayCounts.put(artist, plays);
-                    }
-                }
-            }
+    public boolean searchCache(GetTimesPlayedByUserQuery query) {
+        Integer cachedCount = timesPlayedByUserCache.get(query.userID + "," + query.musicID);
+        if (cachedCount != null) {
+            query.result = cachedCount;
+            return true;
         }
 
-        String[] topArtists = new String[3];
-        for (int i = 0; i < 3; i++)
-            topArtists[i] = "-";
+        // Otherwise try to find the music in the user's cached profile
+        return query.resolveFromProfile(cache.get(query.userID));
+    }
 
-        // Find the top 3 artists from the artistPlayCount map
-        for (int i = 0; i < Math.min(3, artistPlayCounts.size()); i++) {
-            Map.Entry<String, Integer> topEntry = null;
-            for (Map.Entry<String, Integer> entry : artistPlayCounts.entrySet()) {
-                topEntry = (topEntry == null || entry.getValue().compareTo(topEntry.getValue()) > 0) ? entry : topEntry;
-            }
-            artistPlayCounts.remove(topEntry.getKey());
-            topArtists[i] = topEntry.getKey();
-        }
+    /**
+     * Tries to answer a getTimesPlayed query from the cache of total plays per music.
+     *
+     * @param query: the query to answer.
+     * @return boolean: true on a cache hit, in which case the query result has been set.
+     */
+    public boolean searchCache(GetTimesPlayedQuery query) {
+        // The user profiles only hold the plays of the cached users, so the total plays of a music come from their
+        // own cache
+        Integer cachedCount = timesPlayedCache.get(query.musicID);
+        if (cachedCount == null) { return false; }
 
-        query.result = topArtists;
+        query.result = cachedCount;
         return true;
     }
 
     /**
+     * Tries to answer a getTopArtistsByUserGenre query from the user's cached profile.
      *
-     * @param query
-     * @return
+     * @param query: the query to answer.
+     * @return boolean: true on a cache hit, in which case the query result has been set.
      */
-    public boolean searchCache(GetTopThreeMusicByUserQuery query) {
-        String userID = query.userID;
-        boolean hit = false;
-
-        // Check if cache miss, and return false without doing any further work if so
-        UserProfile profile = null;
-        for (UserProfile userProfile : cache) {
-            if (Objects.equals(userProfile.userID, userID)) {
-                profile = userProfile;
-                hit = true;
-                break;
-            }
-        }
-        if (!hit) { return false; }
+    public boolean searchCache(GetTopArtistsByUserGenreQuery query) {
+        return query.resolveFromProfile(cache.get(query.userID));
+    }
 
-        System.out.println(profile);
+    /**
+     * Tries to answer a getTopThreeMusicByUser query from the user's cached profile.
+     *
+     * @param query: the query to answer.
+     * @return boolean: true on a cache hit, in which case the query result has been set.
+     */
+    public boolean searchCache(GetTopThreeMusicByUserQuery query) {
+        return query.resolveFromProfile(cache.get(query.userID));
+    }
 
-        // Find the query result from the cache
-        HashMap<String, Integer> musicPlayCounts = new HashMap<>();
+    /**
+     * Adds a user profile to the cache. If the cache already holds a profile for the user, the two are merged and the
+     * merged profile becomes the most recently used entry.
+     *
+     * @param userProfile: the user profile generated by a query.
+     */
+    public void addToCache(UserProfile userProfile) {
+        cache.merge(userProfile.userID, userProfile, UserProfile::merge);
+    }
 
-        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : profile.favoriteMusics.entrySet()) {
-            for (Map.Entry<MusicProfile, Integer> entry : genreEntry.getValue().entrySet()) {
+    /**
+     * Caches the result of a getTimesPlayed query.
+     *
+     * @param query: a processed query.
+     */
+    public void addToCache(GetTimesPlayedQuery query) {
+        timesPlayedCache.put(query.musicID, query.result);
+    }
 
-                int plays = entry.getValue();
-                String music = entry.getKey().musicID;
-                if (musicPlayCounts.containsKey(music)) {
-                    musicPlayCounts.put(music, musicPlayCounts.get(music) + plays);
-                } else {
-                    musicPlayCounts.put(music, plays);
-                }
-            }
-        }
+    /**
+     * Caches the result of a getTimesPlayedByUser query.
+     *
+     * @param query: a processed query.
+     */
+    public void addToCache(GetTimesPlayedByUserQuery query) {
+        timesPlayedByUserCache.put(query.userID + "," + query.musicID, query.result);
+    }
 
-        String[] topMusic = new String[3];
-        for (int i = 0; i < 3; i++)
-            topMusic[i] = "Q";
+    /**
+     * Adds new rows to the shared dataset, see ServerInterface.ingest.
+     *
+     * @param events: the new rows.
+     * @return int: the number of rows in the dataset after adding the new rows.
+     */
+    @Override
+    public int ingest(List<PlayEvent> events) {
+        datasetHandle.ingest(events);
+        Log.debug(() -> "server_" + serverNumber + " ingested " + events.size() + " rows.");
 
-        // Find the top 3 musics from the musicPlayCounts map
-        for (int i = 0; i < Math.min(3, musicPlayCounts.size()); i++) {
-            Map.Entry<String, Integer> topEntry = null;
-            for (Map.Entry<String, Integer> entry : musicPlayCounts.entrySet()) {
-                topEntry = (topEntry == null || entry.getValue().compareTo(topEntry.getValue()) > 0) ? entry : topEntry;
-            }
-            musicPlayCounts.remove(topEntry.getKey());
-            topMusic[i] = topEntry.getKey();
+        dataset.readLock().lock();
+        try {
+            return dataset.getRowCount();
+        } finally {
+            dataset.readLock().unlock();
         }
-
-        query.result = topMusic;
-        return true;
     }
 
     /**
+     * Removes every cached result that depends on the plays of a user for a music. This must be called whenever the
+     * play count for the (user, music) pair changes in the dataset.
      *
-     * @param userProfile
+     * @param userID: the user whose plays changed.
+     * @param musicID: the music whose plays changed.
      */
-    public void addToCache(UserProfile userProfile) {
-        UserProfile previous = null;
-        for (UserProfile cacheProfile : cache) {
-            if (cacheProfile.userID.equals(userProfile.userID)) {
-                previous = cacheProfile;
-                break;
-            }
-        }
+    public void invalidateCache(String userID, String musicID) {
+        cache.remove(userID);
+        timesPlayedCache.remove(musicID);
+        timesPlayedByUserCache.remove(userID + "," + musicID);
+    }
 
-        // If we have no previous entry for this user in the cache
-        if (previous == null) {
-            if (cache.size() >= 100) { cache.remove(); }
-            cache.add(userProfile);
-            return;
+    /**
+     * Starts the pool of processing threads. These handle requests as they are added to the queue, and block while
+     * the queue is empty.
+     */
+    public void startProcessingThreads() {
+        for (int i = 0; i < config.processingThreads; i++) {
+            Thread thread = new Thread(new ServerQueryProcessor(this, this.dataset, serverCaching), "server_" + serverNumber + "-processing-" + i);
+            processingThreads.add(thread);
+            thread.start();
         }
+    }
 
-        // Otherwise we have found a previous userprofile entry in the cache for this user, so we merge their contents and
-        // move it to the back of the list (most recent)
-
-        // Remove the previous entry
-        cache.remove(previous);
-
-        //System.err.println(previous);
-        //System.err.println(userProfile);
-
-        // Merge the previous and new entry
-        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : previous.favoriteMusics.entrySet()) {
-            // If data about the genre exists in both the previous and new entry, we merge the contents
-            if (userProfile.favoriteMusics.containsKey(genreEntry.getKey())) {
-                for (Map.Entry<MusicProfile, Integer> musicEntry : genreEntry.getValue().entrySet()) {
-                    if (userProfile.favoriteMusics.get(genreEntry.getKey()).containsKey(musicEntry.getKey())) {
-                        continue;
-                    } else {
-                        userProfile.favoriteMusics.get(genreEntry.getKey()).put(musicEntry.getKey(), musicEntry.getValue());
-                    }
-                }
-            }
-            // Otherwise we just add the extra genre data to the new entry so that it contains all the new and old data
-            else {
-                userProfile.favoriteMusics.put(genreEntry.getKey(), genreEntry.getValue());
-            }
-        }
+    /**
+     * Starts pushing the server's load to the proxy-server on a fixed schedule.
+     */
+    private void startLoadReporting() {
+        loadReporter = new ServerLoadReporter(this, registry, config);
+        loadReportScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server_" + serverNumber + "-load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadReportScheduler.scheduleWithFixedDelay(loadReporter, config.loadReportInterval, config.loadReportInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by a processing thread when it starts processing a query.
+     */
+    public void startedProcessing() {
+        inFlight.incrementAndGet();
+    }
 
-        // Finally, add the merged userprofile object to the end of the list (most recent)
-        cache.add(userProfile);
-        //System.err.println(userProfile);
+    /**
+     * Called by a processing thread when it has finished processing a query. Updates the moving average of the
+     * service time.
+     *
+     * @param nanos: how long the query took to process, in nanoseconds.
+     */
+    public void finishedProcessing(long nanos) {
+        inFlight.decrementAndGet();
+        long sample = nanos / 1000;
+        serviceTime.updateAndGet(average -> (average == 0) ? sample
+                : Math.round(config.serviceTimeSmoothing * sample + (1 - config.serviceTimeSmoothing) * average));
     }
 
     /**
-     * Main processing thread. This handles requests as they are added to the queue.
+     * Lets the load reporter check the load right away instead of at its next scheduled run, so that a burst of
+     * queries reaches the proxy-server quickly. The check runs on the reporter's thread.
      */
-    public void startProcessingThread() {
-        new Thread(new ServerQueryProcessor(this, this.dataFilename, serverCaching)).start();
+    private void reportLoadChange() {
+        if (stopped) { return; }
+        try {
+            loadReportScheduler.execute(loadReporter);
+        } catch (RejectedExecutionException e) {
+            // The server was shut down while the query was being admitted, so there is no load to report
+        }
     }
 
+    public int getInFlight() { return inFlight.get(); }
+    public long getServiceTime() { return serviceTime.get(); }
+
     /**
      * ServerInterface method that allows for the proxy-server to get the server's current query queue size.
      *
@@ -306,48 +391,224 @@ public class Server implements ServerInterface {
      *
      * @param query: a query object containing information about which client from which zone has sent the query,
      *               as well as what the query and the query's arguments are.
+     * @return QueryStatus: ACCEPTED if the query was queued, or OVERLOADED if the server's queue is full.
+     * @throws RemoteException
+     */
+    public QueryStatus sendQuery(Query query) throws RemoteException {
+        QueryStatus status = admit(query, System.currentTimeMillis());
+        Log.debug(() -> "Query " + status + " by server_" + serverNumber + ". Queue size: " + queue.size());
+        reportLoadChange();
+        return status;
+    }
+
+    /**
+     * ServerInterface method that allows for clients to send several queries for processing with a single call.
+     *
+     * @param queries: the query objects, see sendQuery.
+     * @return QueryStatus[]: whether each query was queued, in the same order as the queries.
      * @throws RemoteException
      */
-    public void sendQuery(Query query) throws RemoteException {
-        query.timeStamps[1] = System.currentTimeMillis();
-        queue.add(query);
-        System.out.println("Query added to server_" + serverZone + " queue. Queue size: " + queue.size());
+    public QueryStatus[] sendQueries(List<Query> queries) throws RemoteException {
+        long now = System.currentTimeMillis();
+        QueryStatus[] statuses = new QueryStatus[queries.size()];
+        int accepted = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = admit(queries.get(i), now);
+            if (statuses[i] == QueryStatus.ACCEPTED) { accepted++; }
+        }
+        int acceptedQueries = accepted;
+        Log.debug(() -> acceptedQueries + " of " + statuses.length + " queries added to server_" + serverNumber + " queue. Queue size: " + queue.size());
+        reportLoadChange();
+        return statuses;
+    }
+
+    /**
+     * Adds a query to the queue, unless the server is overloaded. The server becomes overloaded when the queue reaches
+     * the high watermark, and stays overloaded until the queue has drained to the low watermark, so that it does not
+     * flip between accepting and rejecting queries on every change in the queue.
+     *
+     * @param query: the query.
+     * @param now: the time the query arrived at the server.
+     * @return QueryStatus: ACCEPTED if the query was queued, otherwise OVERLOADED (also once the server is shut down).
+     */
+    private QueryStatus admit(Query query, long now) {
+        if (stopped) {
+            return QueryStatus.OVERLOADED;
+        }
+        if (overloaded) {
+            if (queue.size() > config.queueLowWatermark) {
+                return QueryStatus.OVERLOADED;
+            }
+            overloaded = false;
+        }
+
+        query.timeStamps[1] = now;
+        query.status = QueryStatus.ACCEPTED;
+
+        // A query identical to one being processed does not need a place in the queue
+        if (attachIfProcessing(query)) {
+            return query.status;
+        }
+        if (!queue.offer(query)) {
+            overloaded = true;
+            query.status = QueryStatus.OVERLOADED;
+        }
+        return query.status;
     }
 
     /**
      * Respond to a client by sending the query object back. The query object will be populated with the
-     * query result.
+     * query result. Responses are collected per client and sent in batches by the response batcher, so this does
+     * not block the processing thread.
      * The query object contains all the necessary data to lookup the correct client that originally sent the query,
      * so we know that we return the response to the correct client.
      *
      * @param query: the query (now populated with a query result) being sent to the client.
      */
     public void sendResponse(Query query) {
-        try {
-            System.out.println("server_" + serverZone + " sending query response to client.");
+        responseBatcher.add(query.getClientNumber(), query);
+    }
 
-            // Use the registry to lookup the client that is being responded to
-            ClientCallbackInterface client = (ClientCallbackInterface) registry.lookup("client_" + query.getClientNumber());
+    /**
+     * Sends a batch of responses back to a client with a single remote call. This runs on one of the response sender
+     * threads. If the call fails because the cached client stub is no longer reachable, the stub is dropped and the
+     * call is retried once with a stub freshly looked up in the registry.
+     *
+     * @param clientNumber: the client that sent the queries.
+     * @param responses: the queries (now populated with query results) being sent to the client.
+     */
+    private void sendResponses(int clientNumber, ArrayList<Query> responses) {
+        Log.debug(() -> "server_" + serverNumber + " sending " + responses.size() + " query responses to client.");
+        Exception error = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                // Send the queries (that are now populated with responses) back to the client
+                getClientStub(clientNumber).sendQueryResponses(responses);
+                return;
+            } catch (ConnectException | ConnectIOException | NoSuchObjectException e) {
+                // The client stub is stale, so look the client up again
+                clientStubs.remove(clientNumber);
+                error = e;
+            } catch (Exception e) {
+                error = e;
+                break;
+            }
+        }
+        Log.error("Something went wrong when responding to client_" + clientNumber + " from server_" + serverNumber
+                + ". Dropping " + responses.size() + " responses.", error);
+    }
 
-            // Send the query (that is now populated with a response) back to the client
-            client.sendQueryResponse(query);
-        } catch (Exception e) {
-            System.out.println("\nError:\n" + e);
-            System.out.println("Something went wrong when responding to client_" + query.getClientNumber() + " from server_" + serverZone);
-            System.exit(1);
+    /**
+     * Get the callback stub for a client, looking it up in the registry the first time it is needed.
+     *
+     * @param clientNumber: the client number.
+     * @return ClientCallbackInterface: the client stub.
+     * @throws Exception if the client cannot be found in the registry.
+     */
+    private ClientCallbackInterface getClientStub(int clientNumber) throws Exception {
+        ClientCallbackInterface client = clientStubs.get(clientNumber);
+        if (client == null) {
+            client = (ClientCallbackInterface) registry.lookup("client_" + clientNumber);
+            clientStubs.put(clientNumber, client);
         }
+        return client;
+    }
+
+    /**
+     * Attaches a query to the processing of an identical query, if one is being processed. Otherwise the query is
+     * registered as being processed, so that identical queries fetched later can attach to it, and the calling thread
+     * must process it and call completeCoalesced afterwards.
+     *
+     * @param query: the query fetched from the queue.
+     * @return boolean: true if the query was attached and will be answered by completeCoalesced, false if the calling
+     *                  thread must process it.
+     */
+    public boolean attachToCoalesced(Query query) {
+        String key = query.getCanonicalKey();
+        if (!config.queryCoalescing || key == null) { return false; }
+
+        // The map's compute is atomic per key, so a query is either attached before the processing query completes
+        // or becomes the processing query for the key itself
+        boolean[] attached = {false};
+        coalescedQueries.compute(key, (k, waiting) -> {
+            if (waiting == null) {
+                return new ArrayList<>();
+            }
+            query.timeStamps[2] = System.currentTimeMillis();
+            waiting.add(query);
+            attached[0] = true;
+            return waiting;
+        });
+        return attached[0];
+    }
+
+    /**
+     * Attaches a query that has just arrived to the processing of an identical query, if one is being processed.
+     *
+     * @param query: the query sent by a client.
+     * @return boolean: true if the query was attached and will be answered by completeCoalesced.
+     */
+    private boolean attachIfProcessing(Query query) {
+        String key = query.getCanonicalKey();
+        if (!config.queryCoalescing || key == null) { return false; }
+
+        boolean[] attached = {false};
+        coalescedQueries.computeIfPresent(key, (k, waiting) -> {
+            query.timeStamps[2] = System.currentTimeMillis();
+            waiting.add(query);
+            attached[0] = true;
+            return waiting;
+        });
+        return attached[0];
     }
 
     /**
-     * Fetches a query object from the query queue if the queue isn't empty.
+     * Answers the queries that attached to a processed query with copies of its result. Each copy keeps its own
+     * client and timestamps, and is sent back to its own client. If the processed query failed, the attached queries
+     * fail as well. This must be called for every query that attachToCoalesced did not attach, also if processing it
+     * failed, since identical queries keep attaching to it until then.
      *
-     * @return: a query object, unless the queue is empty in which case null is returned.
+     * @param query: the processed query.
      */
-    public Query fetchQuery() {
-        if (this.queue.size() > 0) {
-            return queue.remove();
+    public void completeCoalesced(Query query) {
+        String key = query.getCanonicalKey();
+        if (!config.queryCoalescing || key == null) { return; }
+
+        ArrayList<Query> waiting = coalescedQueries.remove(key);
+        if (waiting == null) { return; }
+        for (Query duplicate : waiting) {
+            if (query.status == QueryStatus.FAILED) {
+                duplicate.status = QueryStatus.FAILED;
+            } else {
+                duplicate.copyResultFrom(query);
+            }
+            duplicate.timeStamps[3] = query.timeStamps[3];
+            duplicate.setProcessingServer(serverNumber);
+            sendResponse(duplicate);
+        }
+        if (!waiting.isEmpty()) {
+            Log.debug(() -> "server_" + serverNumber + " answered " + waiting.size() + " coalesced queries.");
         }
-        return null;
+    }
+
+    /**
+     * Fetches the next query object from the query queues, waiting for one to arrive if the queues are empty. See
+     * QueryScheduler for the order in which queries are fetched.
+     *
+     * @return: a query object.
+     * @throws InterruptedException if the processing thread is interrupted while waiting.
+     */
+    public Query fetchQuery() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Get the number of this server, which is unique across all zones.
+     *
+     * @return: the server number.
+     */
+    public int getServerNumber() {
+        return serverNumber;
     }
 
     /**
@@ -366,6 +627,6 @@ public class Server implements ServerInterface {
      */
     @Override
     public String toString() {
-        return "server_" + serverZone;
+        return "server_" + serverNumber;
     }
 }
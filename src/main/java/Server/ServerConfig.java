@@ -0,0 +1,54 @@
+package Server;
+
+/**
+ * Settings shared by all the (processing) servers started by RunServers.
+ */
+public class ServerConfig {
+    // Whether the servers cache query results
+    public Boolean serverCaching = true;
+
+    // Number of threads processing queries in each server
+    public int processingThreads = 1;
+
+    // Admission control: a server rejects new queries once queueHighWatermark queries are waiting, and accepts queries
+    // again when its queue has drained to queueLowWatermark
+    public int queueHighWatermark = 100;
+    public int queueLowWatermark = 50;
+
+    // Share of the processing threads given to each query priority class (HIGH, NORMAL, LOW) while queries of several
+    // classes are waiting
+    public int[] priorityWeights = {8, 4, 1};
+
+    // Whether identical queries that are waiting at the same time share a single computation
+    public Boolean queryCoalescing = true;
+
+    // Capacity of each server cache. This is a number of entries, or an estimated size in bytes if
+    // cacheCapacityInBytes is set
+    public long cacheCapacity = 100;
+    public Boolean cacheCapacityInBytes = false;
+
+    // Responses to the same client are collected for up to responseBatchWindow milliseconds, or until
+    // maxResponseBatchSize responses are waiting, and then sent with a single remote call
+    public long responseBatchWindow = 5;
+    public int maxResponseBatchSize = 64;
+
+    // Number of threads per server sending response batches to clients
+    public int responseThreads = 4;
+
+    // Each server checks its load every loadReportInterval milliseconds, and reports it to the proxy-server if the
+    // queue size has changed by at least loadReportThreshold, the number of queries being processed has changed, or
+    // the last report is older than loadReportHeartbeat milliseconds
+    public long loadReportInterval = 20;
+    public int loadReportThreshold = 2;
+    public long loadReportHeartbeat = 1000;
+
+    // The proxy-server avoids a server whose last load report is older than loadReportTimeout milliseconds, since it
+    // has most likely stopped
+    public long loadReportTimeout = 3000;
+
+    // Weight of the newest sample in the moving average of the service time
+    public double serviceTimeSmoothing = 0.2;
+
+    // Time in milliseconds a server waits on shutdown for its remaining responses to be sent
+    public long shutdownTimeout = 5000;
+}
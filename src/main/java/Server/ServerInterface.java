@@ -1,17 +1,30 @@
 package Server;
 
+import Shared.PlayEvent;
 import Shared.Query;
+import Shared.QueryStatus;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Interface implemented by the (processing) servers.
  * This contains all the RMI methods available from the (processing) servers.
  */
 public interface ServerInterface extends Remote {
-    // Method invoked by clients to send query objects for processing
-    void sendQuery(Query query) throws RemoteException;
+    // Method invoked by clients to send query objects for processing. Returns whether the server accepted the query
+    QueryStatus sendQuery(Query query) throws RemoteException;
+
+    // Method invoked by clients to send several query objects for processing with a single call. Returns whether the
+    // server accepted each query, in the same order as the queries
+    QueryStatus[] sendQueries(List<Query> queries) throws RemoteException;
+
+    // Method invoked by a feed to add new rows to the dataset without a restart. The rows are added to the dataset
+    // shared by all the servers in the server's JVM, and the affected cache entries of those servers are removed.
+    // Returns the number of rows in the dataset afterwards. Throws IllegalArgumentException, and adds none of the rows,
+    // if any of the events is not valid (see PlayEvent.validate)
+    int ingest(List<PlayEvent> events) throws RemoteException;
 
     // Method invoked by the proxy-server to get the size of a servers query queue.
     int getQueueSize() throws RemoteException;
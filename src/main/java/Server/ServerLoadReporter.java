@@ -0,0 +1,62 @@
+package Server;
+
+import java.rmi.registry.Registry;
+
+/**
+ * Periodically pushes a server's load (queue size, number of queries being processed and average service time) to
+ * the proxy-server. A report is only sent when the load has changed significantly since the last report, or when
+ * the last report is older than the heartbeat interval, so idle servers send very few reports.
+ */
+public class ServerLoadReporter implements Runnable {
+    private Server server;
+    private Registry registry;
+    private ServerConfig config;
+
+    private ProxyServerInterface proxyServer = null;
+
+    // The last load reported to the proxy-server
+    private int reportedQueueSize = -1;
+    private int reportedInFlight = -1;
+    private long reportedAt = 0;
+
+    /**
+     * Constructor for a server load reporter.
+     * @param server: the server whose load is reported.
+     * @param registry: the registry used to look up the proxy-server.
+     * @param config: the server settings holding the reporting thresholds.
+     */
+    public ServerLoadReporter(Server server, Registry registry, ServerConfig config) {
+        this.server = server;
+        this.registry = registry;
+        this.config = config;
+    }
+
+    /**
+     * Sends a load report if the load has changed significantly or the heartbeat interval has passed.
+     */
+    @Override
+    public synchronized void run() {
+        try {
+            int queueSize = server.getQueueSize();
+            int inFlight = server.getInFlight();
+            long now = System.currentTimeMillis();
+
+            boolean changed = Math.abs(queueSize - reportedQueueSize) >= config.loadReportThreshold
+                    || inFlight != reportedInFlight;
+            if (!changed && now - reportedAt < config.loadReportHeartbeat) { return; }
+
+            // The proxy-server starts after the servers, so it is looked up on the first report
+            if (proxyServer == null) {
+                proxyServer = (ProxyServerInterface) registry.lookup("proxy-server");
+            }
+            proxyServer.reportLoad(server.getServerNumber(), queueSize, inFlight, server.getServiceTime());
+
+            reportedQueueSize = queueSize;
+            reportedInFlight = inFlight;
+            reportedAt = now;
+        } catch (Exception e) {
+            // The proxy-server is not available (yet), so try again on the next run
+            proxyServer = null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The proxy-server's view of the load on each (processing) server, as last reported by the servers themselves.
+ * The values are kept in atomic arrays, so the servers' reports and the proxy-server's routing decisions never lock.
+ * A server whose last report is too old (for example because it has stopped) is reported with a very long queue, so
+ * that the strategies avoid it until it reports again.
+ */
+public class ServerLoadTable implements ServerLoadView {
+    private final Topology topology;
+    private final AtomicIntegerArray queueSizes;
+    private final AtomicIntegerArray inFlight;
+    private final AtomicLongArray serviceTimes;
+    private final AtomicLongArray reportTimes;
+    private final long staleAfter;
+
+    // Queue size reported for a server that has not reported its load recently
+    private static final int STALE_QUEUE_SIZE = Integer.MAX_VALUE / 4;
+
+    /**
+     * Constructor for a load table.
+     * @param topology: the zones and servers in the table.
+     * @param staleAfter: the time in milliseconds after its last report at which a server is avoided.
+     */
+    public ServerLoadTable(Topology topology, long staleAfter) {
+        int numServers = topology.getNumServers();
+        this.topology = topology;
+        this.queueSizes = new AtomicIntegerArray(numServers);
+        this.inFlight = new AtomicIntegerArray(numServers);
+        this.serviceTimes = new AtomicLongArray(numServers);
+        this.reportTimes = new AtomicLongArray(numServers);
+        this.staleAfter = staleAfter;
+    }
+
+    /**
+     * Stores a load report from a server.
+     * @param server: the server number.
+     * @param queueSize: the number of queries waiting in the server's queue.
+     * @param processing: the number of queries the server is processing.
+     * @param serviceTime: the server's average (EWMA) time to process a query, in microseconds.
+     */
+    public void update(int server, int queueSize, int processing, long serviceTime) {
+        queueSizes.set(server, queueSize);
+        inFlight.set(server, processing);
+        serviceTimes.set(server, serviceTime);
+        reportTimes.set(server, System.currentTimeMillis());
+    }
+
+    public Topology getTopology() { return topology; }
+    public int getNumServers() { return queueSizes.length(); }
+
+    // Getters
+    public int getQueueSize(int server) { return isStale(server) ? STALE_QUEUE_SIZE : queueSizes.get(server); }
+    public int getInFlight(int server) { return inFlight.get(server); }
+    public long getServiceTime(int server) { return serviceTimes.get(server); }
+
+    /**
+     * Check whether a server has not reported its load for longer than the stale time.
+     */
+    private boolean isStale(int server) {
+        return System.currentTimeMillis() - reportTimes.get(server) > staleAfter;
+    }
+
+    /**
+     * Get the number of outstanding (queued or processing) queries on a server.
+     */
+    static int outstanding(ServerLoadView loads, int server) {
+        return loads.getQueueSize(server) + loads.getInFlight(server);
+    }
+
+    /**
+     * Get the cost of sending a client to a server, used by the strategies that prefer the least loaded server.
+     * Outstanding queries count twice, so that being in another zone than the client only breaks ties.
+     * @param loads: the servers' load.
+     * @param zone: the zone in which the client is located.
+     * @param server: the server number.
+     */
+    static long cost(ServerLoadView loads, int zone, int server) {
+        return 2L * outstanding(loads, server) + ((loads.getTopology().getZone(server) == zone) ? 0 : 1);
+    }
+}
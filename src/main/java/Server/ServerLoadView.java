@@ -0,0 +1,20 @@
+package Server;
+
+/**
+ * Read-only view of the load on each (processing) server, used by the load balancing strategies.
+ */
+public interface ServerLoadView {
+    // Zones and servers that the load is reported for
+    Topology getTopology();
+
+    int getNumServers();
+
+    // Number of queries waiting in a server's queue
+    int getQueueSize(int server);
+
+    // Number of queries a server is processing
+    int getInFlight(int server);
+
+    // A server's average time to process a query, in microseconds
+    long getServiceTime(int server);
+}
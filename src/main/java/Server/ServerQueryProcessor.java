@@ -3,19 +3,23 @@ package Server;
 import Shared.*;
 
 public class ServerQueryProcessor implements Runnable {
+    // Simulated network delay (ms) for queries from a client in the server's own zone and from other zones
+    public static final long SAME_ZONE_DELAY = 80;
+    public static final long OTHER_ZONE_DELAY = 170;
+
     Server server;
-    String filename;
+    Dataset dataset;
     Boolean serverCaching;
 
     /**
      * Constructor for a server query processor which will continuously process queries found in a server's query queue.
      *
      * @param server:   a reference to the server object containing the query queue.
-     * @param filename: the filename of the dataset file necessary to process the query.
+     * @param dataset:  the in-memory dataset necessary to process the query.
      */
-    public ServerQueryProcessor(Server server, String filename, Boolean serverCaching) {
+    public ServerQueryProcessor(Server server, Dataset dataset, Boolean serverCaching) {
         this.server = server;
-        this.filename = filename;
+        this.dataset = dataset;
         this.serverCaching = serverCaching;
     }
 
@@ -26,65 +30,117 @@ public class ServerQueryProcessor implements Runnable {
      * @throws InterruptedException Thread interference.
      */
     public void checkConnectedZone(Query currentQuery) throws InterruptedException {
-        if (currentQuery.clientZone == server.getServerZone()) {
-            Thread.sleep(80);
-        } else {
-            Thread.sleep(170);
-        }
+        Thread.sleep(zoneDelay(currentQuery.clientZone, server.getServerZone()));
+    }
+
+    /**
+     * Get the simulated network delay between a client zone and a server zone.
+     * @param clientZone: the zone in which the client is located.
+     * @param serverZone: the zone in which the server is located.
+     * @return long: the delay in milliseconds.
+     */
+    public static long zoneDelay(int clientZone, int serverZone) {
+        return (clientZone == serverZone) ? SAME_ZONE_DELAY : OTHER_ZONE_DELAY;
     }
 
     /**
-     * Continuously checks whether there are any queries waiting in the server's query queue, and fetches and processes
-     * any queries found.
+     * Continuously fetches and processes queries from the server's query queue. The thread blocks while the queue is
+     * empty, so an idle server does not use any CPU.
      */
     @Override
     public void run() {
         Query currentQuery = null;
         while (true) {
-            currentQuery = this.server.fetchQuery();
+            // Block until a query is added to the queue, and stop processing if the thread is interrupted
+            try {
+                currentQuery = this.server.fetchQuery();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // Drop the query without processing it if its deadline passed while it was waiting in the queue
+            if (currentQuery.hasExpired(System.currentTimeMillis())) {
+                currentQuery.status = QueryStatus.EXPIRED;
+                server.sendResponse(currentQuery);
+                continue;
+            }
 
-            // If no query object was returned, we continue waiting for the queue to fill
-            if (currentQuery == null) {
+            // If an identical query is already being processed, this query gets a copy of its result
+            if (server.attachToCoalesced(currentQuery)) {
                 continue;
             }
 
+            // From here on the query is registered for coalescing and counted as being processed, so it is always
+            // answered and finished, also if processing it fails
+            long startTime = System.nanoTime();
+            server.startedProcessing();
+            boolean interrupted = false;
             try {
                 checkConnectedZone(currentQuery);
+
+                // If a query was fetched from the queue, we update the timestamp for this event before processing it
+                currentQuery.timeStamps[2] = System.currentTimeMillis();
+                process(currentQuery);
             } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+                currentQuery.status = QueryStatus.FAILED;
+                interrupted = true;
+            } catch (RuntimeException e) {
+                currentQuery.status = QueryStatus.FAILED;
+                Log.error("Something went wrong when server_" + server.getServerNumber() + " processed " + currentQuery.getCanonicalKey() + ".", e);
+            } finally {
+                // Update the timestamp reflecting the event of finishing the query processing
+                currentQuery.timeStamps[3] = System.currentTimeMillis();
 
-            // If a query was fetched from the queue, we update the timestamp for this event before processing it
-            currentQuery.timeStamps[2] = System.currentTimeMillis();
-
-            // Check if we can resolve the query from cache
-            boolean cacheHit = false;
-            if (serverCaching) {
-                //if (currentQuery instanceof GetTimesPlayedByUserQuery) {
-                //    cacheHit = server.searchCache((GetTimesPlayedByUserQuery) currentQuery);
-//                } else if (currentQuery instanceof GetTimesPlayedQuery) {
-//                    cacheHit = server.searchCache((GetTimesPlayedQuery) currentQuery);
-                if (currentQuery instanceof GetTopArtistsByUserGenreQuery) {
-                    cacheHit = server.searchCache((GetTopArtistsByUserGenreQuery) currentQuery);
-                } else if (currentQuery instanceof  GetTopThreeMusicByUserQuery) {
-                    cacheHit = server.searchCache((GetTopThreeMusicByUserQuery) currentQuery);
-                }
-            }
+                // set the processingServer variable to reflect which server processed the query
+                currentQuery.setProcessingServer(server.getServerNumber());
 
-            // Run the query. This will populate the query result inside the query object
-            if (!cacheHit) {
-                currentQuery.run(filename, server);
+                // Send the query (populated with a response, unless it failed) back to the client
+                Log.debug(() -> "server_" + server.getServerNumber() + "-processing thread finished processing query.");
+                server.sendResponse(currentQuery);
+                server.completeCoalesced(currentQuery);
+                server.finishedProcessing(System.nanoTime() - startTime);
             }
 
-            // Update the timestamp reflecting the event of finishing the query processing
-            currentQuery.timeStamps[3] = System.currentTimeMillis();
+            // The thread was interrupted while processing, so it stops after answering the query
+            if (interrupted) { return; }
+        }
+    }
+
+    /**
+     * Answers a query from the server's cache if possible, and otherwise runs it against the dataset.
+     *
+     * @param currentQuery: the query to process.
+     */
+    private void process(Query currentQuery) {
+        // Check if we can resolve the query from cache
+        boolean cacheHit = false;
+        if (serverCaching) {
+            if (currentQuery instanceof GetTimesPlayedByUserQuery) {
+                cacheHit = server.searchCache((GetTimesPlayedByUserQuery) currentQuery);
+            } else if (currentQuery instanceof GetTimesPlayedQuery) {
+                cacheHit = server.searchCache((GetTimesPlayedQuery) currentQuery);
+            } else if (currentQuery instanceof GetTopArtistsByUserGenreQuery) {
+                cacheHit = server.searchCache((GetTopArtistsByUserGenreQuery) currentQuery);
+            } else if (currentQuery instanceof  GetTopThreeMusicByUserQuery) {
+                cacheHit = server.searchCache((GetTopThreeMusicByUserQuery) currentQuery);
+            }
+        }
+        if (cacheHit) { return; }
 
-            // set the processingServer variable to reflect which server processed the query
-            currentQuery.setProcessingServer(server.getServerZone());
+        // Run the query. This will populate the query result inside the query object. The read lock is held until
+        // the result is cached, so that rows ingested meanwhile invalidate the cached result (see SharedDataset)
+        dataset.readLock().lock();
+        try {
+            currentQuery.run(dataset, server);
 
-            // Send the query (not populated with a response) back to the client
-            System.out.println("server_" + server.getServerZone() + "-processing thread finished processing query.");
-            server.sendResponse(currentQuery);
+            // The getTimesPlayed results are cached here, the user profiles are cached by the queries themselves
+            if (serverCaching && currentQuery instanceof GetTimesPlayedByUserQuery) {
+                server.addToCache((GetTimesPlayedByUserQuery) currentQuery);
+            } else if (serverCaching && currentQuery instanceof GetTimesPlayedQuery) {
+                server.addToCache((GetTimesPlayedQuery) currentQuery);
+            }
+        } finally {
+            dataset.readLock().unlock();
         }
     }
 }
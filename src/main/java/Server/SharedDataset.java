@@ -0,0 +1,164 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+
+import Shared.Log;
+import Shared.PlayEvent;
+
+/**
+ * Process-wide, reference counted handle to a loaded Dataset. All the servers started in the same JVM acquire the
+ * dataset through this class, so each dataset file is loaded once and kept in memory once however many zones and
+ * servers per zone are started. The dataset is dropped when the last server using it releases its handle.
+ * New rows are added through ingest, which also invalidates the affected cache entries of every server using the
+ * dataset.
+ */
+public class SharedDataset {
+    // Open handles by the absolute path of their dataset file. The lock on this map is only held briefly, never while
+    // a dataset is loaded
+    private static final HashMap<Path, SharedDataset> handles = new HashMap<>();
+
+    private final Path file;
+
+    // Completed with the dataset once the first server acquiring the handle has loaded it
+    private final CompletableFuture<Dataset> dataset = new CompletableFuture<>();
+
+    // The servers holding a handle, used both as the reference count and to invalidate their caches
+    private final ArrayList<Server> servers = new ArrayList<>();
+
+    private SharedDataset(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Get a handle to the dataset loaded from a file, loading it if no server in the JVM is using it yet. Servers
+     * acquiring the dataset while it is being loaded wait for the load instead of loading their own copy. Loading
+     * does not block servers using other dataset files.
+     * Every call must be matched by a call to release.
+     *
+     * @param filename: the filename of the dataset file.
+     * @param server: the server using the dataset.
+     * @return SharedDataset: the handle to the dataset.
+     * @throws IOException if the dataset has to be loaded and the file cannot be read.
+     */
+    public static SharedDataset acquire(String filename, Server server) throws IOException {
+        Path file = Path.of(filename).toAbsolutePath().normalize();
+
+        SharedDataset handle;
+        boolean load = false;
+        synchronized (handles) {
+            handle = handles.get(file);
+            if (handle == null) {
+                handle = new SharedDataset(file);
+                handles.put(file, handle);
+                load = true;
+            }
+            handle.servers.add(server);
+        }
+
+        // The first server loads the dataset outside the lock. If loading fails, the handle is removed so that the
+        // next acquire tries again
+        if (load) {
+            try {
+                handle.dataset.complete(Dataset.load(filename));
+            } catch (IOException | RuntimeException e) {
+                synchronized (handles) {
+                    handles.remove(file, handle);
+                }
+                handle.dataset.completeExceptionally(e);
+            }
+        }
+
+        try {
+            handle.dataset.join();
+            return handle;
+        } catch (CompletionException e) {
+            handle.release(server);
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Releases a handle returned by acquire. The dataset is dropped, and loaded again by the next acquire, once every
+     * handle to it has been released.
+     * @param server: the server that acquired the handle.
+     */
+    public void release(Server server) {
+        synchronized (handles) {
+            if (!servers.remove(server)) {
+                throw new IllegalStateException("server_" + server.getServerNumber() + " does not hold the dataset " + file + ".");
+            }
+            if (servers.isEmpty()) {
+                handles.remove(file, this);
+                if (!dataset.isCompletedExceptionally()) {
+                    Log.info("Released the dataset " + file + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends new rows to the dataset (see Dataset.append) and removes the cached results that depend on them from
+     * every server using the dataset. The caches are invalidated before the write lock is released, so a query that
+     * reads the new rows can never be answered from a result cached before them.
+     *
+     * @param events: the new rows.
+     * @throws IllegalArgumentException if an event is not valid, in which case none of the rows are added.
+     */
+    public void ingest(List<PlayEvent> events) {
+        Dataset dataset = get();
+        Lock writeLock = dataset.writeLock();
+        writeLock.lock();
+        try {
+            dataset.append(events);
+        } finally {
+            // The caches are also invalidated if the append failed part way, since some rows may have been added
+            try {
+                invalidateCaches(events);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes the cached results that depend on the events from every server using the dataset.
+     */
+    private void invalidateCaches(List<PlayEvent> events) {
+        List<Server> current;
+        synchronized (handles) {
+            current = new ArrayList<>(servers);
+        }
+        for (Server server : current) {
+            for (PlayEvent event : events) {
+                if (event.userID != null && event.musicID != null) {
+                    server.invalidateCache(event.userID, event.musicID);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the dataset. It must not be used after the handle has been released.
+     * @return Dataset: the shared dataset.
+     */
+    public Dataset get() {
+        return dataset.join();
+    }
+
+    /**
+     * Get the number of handles to the dataset that have not been released.
+     * @return int: the reference count.
+     */
+    public int getReferences() {
+        synchronized (handles) {
+            return servers.size();
+        }
+    }
+}
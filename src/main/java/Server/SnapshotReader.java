@@ -0,0 +1,126 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the primitive values of a dataset snapshot from a memory mapped file. The file is mapped in windows, since a
+ * single mapping is limited to 2GB, and arrays are copied out of the mapping in bulk. See Dataset.readSnapshot.
+ */
+class SnapshotReader {
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    private final FileChannel channel;
+    private final long size;
+
+    // The current window, and the position of the window's start in the file
+    private MappedByteBuffer buffer;
+    private long windowStart = 0;
+
+    SnapshotReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, size));
+    }
+
+    int readInt() throws IOException {
+        ensure(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    long readLong() throws IOException {
+        ensure(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads the length of an array (or the number of entries of a table), and checks that it is not negative and that
+     * the rest of the snapshot is large enough to hold it, so that a corrupt length fails with an IOException instead
+     * of allocating a huge array.
+     * @param elementBytes: the least number of bytes each element takes up in the snapshot.
+     * @return int: the length.
+     */
+    int readLength(int elementBytes) throws IOException {
+        int length = readInt();
+        long remaining = size - (windowStart + buffer.position());
+        if (length < 0 || (long) length * elementBytes > remaining) {
+            throw new IOException("Dataset snapshot is corrupt: length " + length + " does not fit in the remaining "
+                    + remaining + " bytes.");
+        }
+        return length;
+    }
+
+    /**
+     * Reads an array written by SnapshotWriter.writeInts.
+     */
+    int[] readInts() throws IOException {
+        int[] values = new int[readLength(Integer.BYTES)];
+        readInts(values);
+        return values;
+    }
+
+    /**
+     * Reads the values of an array whose length has been read already.
+     */
+    private void readInts(int[] values) throws IOException {
+        int read = 0;
+        while (read < values.length) {
+            ensure(Integer.BYTES);
+            int length = Math.min(values.length - read, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(values, read, length);
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            read += length;
+        }
+    }
+
+    /**
+     * Maps an array written by SnapshotWriter.writeInts on its own, without copying it. The mapping is read-only and
+     * stays valid after the snapshot is closed, and its pages are shared with every process mapping the same
+     * snapshot. Arrays over 2GB cannot be mapped at once and are copied instead.
+     *
+     * @return IntBuffer: the array.
+     */
+    IntBuffer mapInts() throws IOException {
+        int length = readLength(Integer.BYTES);
+        long bytes = (long) length * Integer.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            int[] values = new int[length];
+            readInts(values);
+            return IntBuffer.wrap(values);
+        }
+
+        long position = windowStart + buffer.position();
+        IntBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).asIntBuffer();
+
+        // Move past the array
+        windowStart = position + bytes;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, size - windowStart));
+        return values;
+    }
+
+    /**
+     * Interns a string written by SnapshotWriter.writeBytes straight from the mapped bytes.
+     */
+    int readString(StringDictionary dictionary) throws IOException {
+        int length = readLength(1);
+        ensure(length);
+        int start = buffer.position();
+        buffer.position(start + length);
+        return dictionary.intern(buffer, start, start + length);
+    }
+
+    /**
+     * Moves the window forward if fewer than the given number of bytes are left in it.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) { return; }
+
+        windowStart += buffer.position();
+        if (windowStart + bytes > size) {
+            throw new IOException("Dataset snapshot is truncated.");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, size - windowStart));
+    }
+}
@@ -0,0 +1,73 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the primitive values of a dataset snapshot to a file through a buffer. See Dataset.writeSnapshot.
+ */
+class SnapshotWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    SnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    void writeInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void writeLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes the length followed by the first count values of an array.
+     */
+    void writeInts(int[] values, int count) throws IOException {
+        writeInt(count);
+        int written = 0;
+        while (written < count) {
+            ensure(Integer.BYTES);
+            int length = Math.min(count - written, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, written, length);
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            written += length;
+        }
+    }
+
+    /**
+     * Writes the length followed by the bytes.
+     */
+    void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        int written = 0;
+        while (written < bytes.length) {
+            ensure(1);
+            int length = Math.min(bytes.length - written, buffer.remaining());
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    /**
+     * Writes out everything left in the buffer.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary that interns the strings found in the dataset (musicIDs, artists, genres and userIDs) and maps each
+ * distinct string to a dense integer code starting at 0. The dataset columns only store these codes.
+ * Strings can also be interned straight from the bytes of the dataset file. The bytes are compared against the UTF-8
+ * encoding of the strings already in the dictionary, so a String is only created the first time a value is seen.
+ */
+public class StringDictionary {
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private final ArrayList<String> values = new ArrayList<>();
+
+    // Open addressing table from the hash of a value's UTF-8 bytes to its code (-1 for an empty slot), and the bytes of
+    // each value by code
+    private int[] byteTable = newTable(64);
+    private final ArrayList<byte[]> valueBytes = new ArrayList<>();
+
+    /**
+     * Returns the code for a string, assigning it the next free code if it has not been seen before.
+     * @param value: the string to intern.
+     * @return int: the code for the string.
+     */
+    public int intern(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            code = add(value, bytes, hash(bytes));
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code for the UTF-8 encoded string in buffer[start : end], assigning it the next free code if it has
+     * not been seen before. The buffer's position is not changed.
+     * @param buffer: the buffer holding the string, for example a memory mapped file.
+     * @param start: the index of the first byte of the string.
+     * @param end: the index after the last byte of the string.
+     * @return int: the code for the string.
+     */
+    public int intern(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        hash = mix(hash);
+
+        int mask = byteTable.length - 1;
+        for (int slot = hash & mask; byteTable[slot] >= 0; slot = (slot + 1) & mask) {
+            if (equals(valueBytes.get(byteTable[slot]), buffer, start, end)) {
+                return byteTable[slot];
+            }
+        }
+
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return add(new String(bytes, StandardCharsets.UTF_8), bytes, hash);
+    }
+
+    /**
+     * Adds a new value under the next free code.
+     */
+    private int add(String value, byte[] bytes, int hash) {
+        int code = values.size();
+        codes.put(value, code);
+        values.add(value);
+        valueBytes.add(bytes);
+
+        if (2 * values.size() > byteTable.length) {
+            byteTable = newTable(byteTable.length * 2);
+            for (int i = 0; i < valueBytes.size(); i++) {
+                insert(hash(valueBytes.get(i)), i);
+            }
+        } else {
+            insert(hash, code);
+        }
+        return code;
+    }
+
+    private void insert(int hash, int code) {
+        int mask = byteTable.length - 1;
+        int slot = hash & mask;
+        while (byteTable[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        byteTable[slot] = code;
+    }
+
+    private static boolean equals(byte[] bytes, ByteBuffer buffer, int start, int end) {
+        if (bytes.length != end - start) { return false; }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer.get(start + i)) { return false; }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 0;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    /**
+     * Looks up the code for a string without interning it.
+     * @param value: the string to look up.
+     * @return int: the code for the string, or -1 if the string is not in the dictionary.
+     */
+    public int lookup(String value) {
+        Integer code = codes.get(value);
+        return (code == null) ? -1 : code;
+    }
+
+    /**
+     * Get the string for a code.
+     * @param code: a code previously returned by intern.
+     * @return String: the interned string.
+     */
+    public String get(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the values to a dataset snapshot in code order.
+     * @param out: the snapshot being written.
+     * @throws IOException
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        out.writeInt(valueBytes.size());
+        for (byte[] bytes : valueBytes) {
+            out.writeBytes(bytes);
+        }
+    }
+
+    /**
+     * Interns the values written by writeTo into an empty dictionary, which gives every value the code it had before.
+     * @param in: the snapshot being read.
+     * @throws IOException
+     */
+    void readFrom(SnapshotReader in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            in.readString(this);
+        }
+    }
+}
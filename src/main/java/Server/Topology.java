@@ -0,0 +1,57 @@
+package Server;
+
+import java.io.Serializable;
+
+/**
+ * Layout of the (processing) servers: a number of geographical zones with the same number of servers in each zone.
+ * Servers are numbered across all zones, so servers 0 to serversPerZone - 1 are in zone 0, the next serversPerZone
+ * servers are in zone 1, and so on. Zones are arranged in a ring, so the last zone neighbors zone 0.
+ */
+public class Topology implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public int numZones = 5;
+    public int serversPerZone = 1;
+
+    public int getNumServers() {
+        return numZones * serversPerZone;
+    }
+
+    /**
+     * Get the zone a server is in.
+     * @param server: the server number.
+     * @return int: the zone of the server.
+     */
+    public int getZone(int server) {
+        return server / serversPerZone;
+    }
+
+    /**
+     * Get the number of the first server in a zone. The zone's servers are numbered from here up to
+     * getFirstServer(zone) + serversPerZone - 1.
+     * @param zone: the zone.
+     * @return int: the number of the zone's first server.
+     */
+    public int getFirstServer(int zone) {
+        return zone * serversPerZone;
+    }
+
+    /**
+     * Get a zone's neighboring zone in the ring of zones.
+     * @param zone: the zone.
+     * @param offset: -1 for the previous zone or 1 for the next zone.
+     * @return int: the neighboring zone.
+     */
+    public int getNeighborZone(int zone, int offset) {
+        return Math.floorMod(zone + offset, numZones);
+    }
+
+    public boolean isValidZone(int zone) {
+        return zone >= 0 && zone < numZones;
+    }
+
+    @Override
+    public String toString() {
+        return numZones + " zones with " + serversPerZone + " server(s) each";
+    }
+}
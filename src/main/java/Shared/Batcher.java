@@ -0,0 +1,115 @@
+package Shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects items per destination and hands them over in batches, so that many small items can be sent with a single
+ * remote call. A destination's batch is flushed when it reaches the maximum batch size, and every non-empty batch is
+ * flushed at the end of each batching window. Flushes run on the batcher's own thread, never on the thread adding
+ * the items.
+ *
+ * @param <K> the destination type.
+ * @param <T> the item type.
+ */
+public class Batcher<K, T> {
+    private final HashMap<K, ArrayList<T>> batches = new HashMap<>();
+    private final BiConsumer<K, ArrayList<T>> flusher;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor for a batcher.
+     * @param name: the name of the flushing thread.
+     * @param windowMillis: the length of the batching window in milliseconds.
+     * @param maxBatchSize: the number of items that causes a batch to be flushed before the window ends.
+     * @param flusher: function sending a batch of items to a destination.
+     */
+    public Batcher(String name, long windowMillis, int maxBatchSize, BiConsumer<K, ArrayList<T>> flusher) {
+        this.flusher = flusher;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushAll, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds an item to the batch for a destination.
+     * @param destination: where the item should be sent.
+     * @param item: the item.
+     */
+    public void add(K destination, T item) {
+        boolean full;
+        synchronized (batches) {
+            ArrayList<T> batch = batches.computeIfAbsent(destination, key -> new ArrayList<>());
+            batch.add(item);
+            full = (batch.size() == maxBatchSize);
+        }
+        if (full && !scheduler.isShutdown()) {
+            scheduler.execute(() -> flush(destination));
+        }
+    }
+
+    /**
+     * Flushes the batches that are waiting and stops the batcher, waiting up to a timeout for the flush to finish.
+     * Items added afterwards are not sent.
+     * @param timeoutMillis: the longest time to wait in milliseconds.
+     */
+    public void shutdown(long timeoutMillis) {
+        scheduler.execute(this::flushAll);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flushes the batch for a single destination.
+     */
+    private void flush(K destination) {
+        ArrayList<T> batch;
+        synchronized (batches) {
+            batch = batches.remove(destination);
+        }
+        if (batch != null) {
+            send(destination, batch);
+        }
+    }
+
+    /**
+     * Flushes the batches for all destinations.
+     */
+    private void flushAll() {
+        HashMap<K, ArrayList<T>> current;
+        synchronized (batches) {
+            if (batches.isEmpty()) { return; }
+            current = new HashMap<>(batches);
+            batches.clear();
+        }
+        for (Map.Entry<K, ArrayList<T>> entry : current.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Hands a batch to the flusher. Errors are caught so that a failing destination does not stop the periodic
+     * flushing for the other destinations.
+     */
+    private void send(K destination, ArrayList<T> batch) {
+        try {
+            flusher.accept(destination, batch);
+        } catch (RuntimeException e) {
+            Log.error("Something went wrong when sending a batch of " + batch.size() + " items to " + destination + ".", e);
+        }
+    }
+}
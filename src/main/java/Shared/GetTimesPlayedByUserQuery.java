@@ -1,12 +1,14 @@
 package Shared;
 
+import Server.Dataset;
 import Server.Server;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.Map;
 
 /**
  * Class that gives the number of times a userID has played a specific musicID based on the dataset.csv.
@@ -19,6 +21,9 @@ public class GetTimesPlayedByUserQuery extends Query {
     // Query results
     public int result;
 
+    // Used when the query is read from the wire format
+    public GetTimesPlayedByUserQuery() {}
+
     /**
      * GetTimesPlayedByUser query constructor. The client zone and number of the client sending the query,
      * as well as the arguments for the query, are all determined upon creating the query object.
@@ -35,37 +40,21 @@ public class GetTimesPlayedByUserQuery extends Query {
     }
 
     @Override
-    public void run(String filename, Server server) {
-        Scanner scanner = null;
-        int counter = 0;
-
-        try {
-            scanner = new Scanner(new File(filename));
-        } catch (Exception e) {
-            System.out.println("Error: " + e);
-            System.out.println("Something went wrong while trying to complete request.");
-            System.exit(1);
-        }
-
+    public void run(Dataset dataset, Server server) {
         String tempGenre = "";
         ArrayList<String> tempArtists = new ArrayList<>();
-        int tempTimesPlayed = 0;
 
-        //  Scan trough entire dataset and count amount of times listened to song by userID.
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            if (!line.contains(musicID) || !line.contains(userID)) { continue; }
+        // The plays per (user, music) are precomputed when the dataset is loaded
+        int music = dataset.getMusicCode(musicID);
+        result = dataset.getUserPlays(dataset.getUserCode(userID), music);
 
-            String[] data = line.split(",");
-            counter += Integer.parseInt(data[data.length - 1]);
-
-            // Get additional info needed for cache entry.
-            tempGenre = data[data.length - 3];
-            tempArtists.addAll(Arrays.asList(data).subList(1, data.length - 3));
+        // Get additional info needed for cache entry.
+        if (music >= 0) {
+            tempGenre = dataset.getMusicGenre(music);
+            tempArtists = dataset.getMusicArtists(music);
         }
-        result = counter;
         // Create cache entry.
-        generateCacheEntry(tempGenre, tempArtists, counter, server);
+        generateCacheEntry(tempGenre, tempArtists, result);
     }
 
     /**
@@ -73,9 +62,8 @@ public class GetTimesPlayedByUserQuery extends Query {
      * @param genre: Genre used to categorize the music entry in favouriteMusics.
      * @param artists: List of artists to be added to the MusicProfile entry in cache.
      * @param timesPlayed: Times the user has played the song.
-     * @param server: Instance of server.
      */
-    private void generateCacheEntry(String genre, ArrayList<String> artists, int timesPlayed, Server server){
+    private void generateCacheEntry(String genre, ArrayList<String> artists, int timesPlayed){
         HashMap<MusicProfile, Integer> musicEntry = new HashMap<>();
         MusicProfile tempMusicProfile = new MusicProfile(musicID,artists);
         musicEntry.put(tempMusicProfile, timesPlayed);
@@ -84,11 +72,55 @@ public class GetTimesPlayedByUserQuery extends Query {
         UserProfile tempUserProfile = new UserProfile(userID);
         tempUserProfile.favoriteMusics.put(genre, musicEntry);
 
-        // Return cache entry;
-        server.addToCache(tempUserProfile);
+        // The profile only goes back to the client. The server caches the (user, music) count on its own (see
+        // Server.addToCache), so that a single music never ends up in the profile used for the top lists
         this.cache = tempUserProfile;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeUTF(musicID);
+        out.writeUTF(userID);
+        out.writeInt(result);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        musicID = in.readUTF();
+        userID = in.readUTF();
+        result = in.readInt();
+    }
+
+    @Override
+    public String getCanonicalKey() { return "getTimesPlayedByUser(" + musicID + "," + userID + ")"; }
+
+    @Override
+    public void copyResultFrom(Query other) {
+        super.copyResultFrom(other);
+        result = ((GetTimesPlayedByUserQuery) other).result;
+    }
+
+    @Override
+    public String getUserID() { return userID; }
+
+    @Override
+    public boolean resolveFromProfile(UserProfile profile) {
+        if (profile == null) { return false; }
+
+        // Scan the favouriteMusics of every genre to see if the music exists there.
+        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : profile.favoriteMusics.entrySet()) {
+            for (Map.Entry<MusicProfile, Integer> songEntry : genreEntry.getValue().entrySet()) {
+                if (songEntry.getKey().musicID.equals(musicID)) {
+                    result = songEntry.getValue();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         String s = "Music '" + musicID + "' was played " + result + " times by user '" + userID + "'. ";
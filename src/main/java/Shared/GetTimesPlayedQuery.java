@@ -1,8 +1,10 @@
 package Shared;
 
-import java.io.File;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
+import Server.Dataset;
 import Server.Server;
 
 /**
@@ -15,6 +17,9 @@ public class GetTimesPlayedQuery extends Query {
     // Query results
     public int result;
 
+    // Used when the query is read from the wire format
+    public GetTimesPlayedQuery() {}
+
     /**
      * GetTimesPlayed query constructor. The client zone and number of the client sending the query,
      * as well as the arguments for the query, are all determined upon creating the query object.
@@ -29,29 +34,38 @@ public class GetTimesPlayedQuery extends Query {
     }
 
     @Override
-    public void run(String filename, Server server) {
-        Scanner scanner = null;
-        int counter = 0;
+    public void run(Dataset dataset, Server server) {
+        // The total plays per music are precomputed when the dataset is loaded
+        result = dataset.getTotalPlays(dataset.getMusicCode(musicID));
+    }
 
-        try {
-            scanner = new Scanner(new File(filename));
-        } catch (Exception e) {
-            System.out.println("Error: " + e);
-            System.out.println("Something went wrong while trying to complete request.");
-            System.exit(1);
-        }
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeUTF(musicID);
+        out.writeInt(result);
+    }
 
-        //  Scan trough entire dataset and count amount of times listened to song by userID.
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            if (!line.contains(musicID)) { continue; }
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        musicID = in.readUTF();
+        result = in.readInt();
+    }
 
-            String[] data = line.split(",");
-            counter += Integer.parseInt(data[data.length - 1]);
-        }
-        result = counter;
+    @Override
+    public String getCanonicalKey() { return "getTimesPlayed(" + musicID + ")"; }
+
+    @Override
+    public void copyResultFrom(Query other) {
+        super.copyResultFrom(other);
+        result = ((GetTimesPlayedQuery) other).result;
     }
 
+    // The server caches the result by musicID
+    @Override
+    public String getRoutingKey() { return musicID; }
+
     @Override
     public String toString() {
         String s = "Music '" + musicID + "' was played " + result + " times. ";
@@ -1,9 +1,11 @@
 package Shared;
 
-import java.io.File;
-import java.lang.reflect.Array;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.*;
 
+import Server.Dataset;
 import Server.Server;
 
 /**
@@ -17,6 +19,9 @@ public class GetTopArtistsByUserGenreQuery extends Query {
     // Query results
     public String[] result;
 
+    // Used when the query is read from the wire format
+    public GetTopArtistsByUserGenreQuery() {}
+
     /**
      * GetTopArtistsByUser query constructor. The client zone and number of the client sending the query,
      * as well as the arguments for the query, are all determined upon creating the query object.
@@ -33,72 +38,36 @@ public class GetTopArtistsByUserGenreQuery extends Query {
     }
 
     /**
+     * Finds the top 3 artists for the user and genre by aggregating the plays of the matching rows in the dataset.
      *
-     * @param filename
-     * @param server
+     * @param dataset: the in-memory dataset.
+     * @param server: the server processing the query, which the cache entry is added to.
      */
     @Override
-    public void run(String filename, Server server) {
-        Scanner scanner = null;
-        HashMap<String, Integer> playCounts = new HashMap<String, Integer>();
-
-        try {
-            scanner = new Scanner(new File(filename));
-        } catch (Exception e) {
-            System.out.println("Error: " + e);
-            System.out.println("Something went wrong while trying to complete request.");
-            System.exit(1);
+    public void run(Dataset dataset, Server server) {
+        int user = dataset.getUserCode(userID);
+        int genreCode = dataset.getGenreCode(genre);
+
+        // The top artists per (user, genre) are precomputed when the dataset is loaded
+        String[] topThreeArtists = new String[3];
+        for (int i = 0; i < 3; i++)
+            topThreeArtists[i] = "-";
+
+        int[] topArtists = dataset.getTopArtists(user, genreCode);
+        for (int i = 0; i < Math.min(3, topArtists.length); i++) {
+            topThreeArtists[i] = dataset.getArtistName(topArtists[i]);
         }
+        result = topThreeArtists;
 
         // Hashmaps needed for making cache entry.
         HashMap<String, Integer> musicCounts = new HashMap<>();
         HashMap<String, ArrayList<String>> artists = new HashMap<>();
-
-        //ArrayList<String> musicIDs = new ArrayList<>();
-        //ArrayList<Integer> timesPlayed = new ArrayList<>();
-
-        while (scanner.hasNextLine()) {
-            ArrayList<String> tempArtistList = new ArrayList<>();
-
-            String line = scanner.nextLine();
-            if (!line.contains(userID) || !line.contains(genre)) {
-                continue;
-            }
-
-            String[] data = line.split(",");
-
-            // Find all artists in the data entry
-            for (int i = 1; i < data.length; i++) {
-                if (!data[i].startsWith("A")) {
-                    break;
-                }
-                tempArtistList.add(data[i]);
-
-                // Update the play count for the artist fou
-                if (playCounts.containsKey(data[i])) {
-                    playCounts.put(data[i], playCounts.get(data[i]) + Integer.parseInt(data[data.length - 1]));
-                } else {
-                    playCounts.put(data[i], Integer.parseInt(data[data.length - 1]));
-                }
-            }
-            artists.put(data[0], tempArtistList);
-
-            // Add info to cache:
-            int timesPlayed = Integer.parseInt(data[data.length - 1]);
-            musicCounts.put(data[0], (musicCounts.containsKey(data[0]) ? musicCounts.get(data[0]) + timesPlayed : timesPlayed));
-        }
-
-        String[] topThreeArtists = new String[3];
-        for (int i = 0; i < Math.min(3, playCounts.size()); i++) {
-            Map.Entry<String, Integer> topEntry = null;
-            for (Map.Entry<String, Integer> entry : playCounts.entrySet()) {
-                topEntry = (topEntry == null || entry.getValue().compareTo(topEntry.getValue()) > 0) ? entry : topEntry;
-            }
-            playCounts.remove(topEntry.getKey());
-            topThreeArtists[i] = topEntry.getKey();
+        for (int music : dataset.getTopMusic(user, genreCode)) {
+            String musicID = dataset.getMusicID(music);
+            musicCounts.put(musicID, dataset.getUserPlays(user, music));
+            artists.put(musicID, dataset.getMusicArtists(music));
         }
 
-        result = topThreeArtists;
         // Create cache entry.
         generateCacheEntry(musicCounts, artists, server);
     }
@@ -137,16 +106,58 @@ public class GetTopArtistsByUserGenreQuery extends Query {
         // Make temporary user profile
         UserProfile tempUserProfile = new UserProfile(userID);
         tempUserProfile.favoriteMusics.put(genre, musicEntry);
+        tempUserProfile.topArtists.put(genre, result.clone());
 
 
         // Return cache entry;
-        System.err.println("USERPROFILE GENERATED BY GETTOPARTISTS" + tempUserProfile);
+        Log.debug(() -> "User profile generated by getTopArtistsByUserGenre:\n" + tempUserProfile);
         server.addToCache(tempUserProfile);
 
         this.cache = tempUserProfile;
     }
 
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeUTF(userID);
+        out.writeUTF(genre);
+        writeStrings(out, result);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        userID = in.readUTF();
+        genre = in.readUTF();
+        result = readStrings(in);
+    }
+
+    @Override
+    public String getCanonicalKey() { return "getTopArtistsByUserGenre(" + userID + "," + genre + ")"; }
+
+    @Override
+    public void copyResultFrom(Query other) {
+        super.copyResultFrom(other);
+        result = ((GetTopArtistsByUserGenreQuery) other).result.clone();
+    }
+
+    @Override
+    public String getUserID() { return userID; }
+
+    /**
+     * Answers the query from the exact top list stored in the profile by an earlier getTopArtistsByUserGenre query for
+     * the same genre. The artists are not ranked from the musics in the profile, since those are only the user's top
+     * musics and can give a different ranking than the whole genre.
+     */
+    @Override
+    public boolean resolveFromProfile(UserProfile profile) {
+        String[] topArtists = (profile == null) ? null : profile.topArtists.get(genre);
+        if (topArtists == null) { return false; }
+        result = topArtists.clone();
+        return true;
+    }
+
     @Override
     public String toString() {
         String s = "Top 3 artists for genre '" + genre + "' and user '" + userID + "' were [" + result[0] + ", " + result[1] + ", " + result[2] + "]. ";
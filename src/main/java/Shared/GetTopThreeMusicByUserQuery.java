@@ -1,12 +1,13 @@
 package Shared;
 
-import java.io.File;
-import java.lang.reflect.Array;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.HashMap;
 import java.util.Map;
 
+import Server.Dataset;
 import Server.Server;
 
 /**
@@ -19,6 +20,9 @@ public class GetTopThreeMusicByUserQuery extends Query {
     // Query results
     public String[] result;
 
+    // Used when the query is read from the wire format
+    public GetTopThreeMusicByUserQuery() {}
+
     /**
      * GetTopThreeMusicByUser query constructor. The client zone and number of the client sending the query,
      * as well as the arguments for the query, are all determined upon creating the query object.
@@ -33,59 +37,26 @@ public class GetTopThreeMusicByUserQuery extends Query {
     }
 
     @Override
-    public void run(String filename, Server server) {
-        Scanner scanner = null;
-        HashMap<String, Integer> playCounts = new HashMap<String, Integer>();
-
-        try {
-            scanner = new Scanner(new File(filename));
-        } catch (Exception e) {
-            System.out.println("Error: " + e);
-            System.out.println("Something went wrong while trying to complete request.");
-            System.exit(1);
-        }
+    public void run(Dataset dataset, Server server) {
+        int user = dataset.getUserCode(userID);
 
         // Hashmaps needed for making cache entry.
+        HashMap<String, Integer> topThreePlayedMusic = new HashMap<>();
         HashMap<String, String> musicGenres = new HashMap<>();
         HashMap<String, ArrayList<String>> artists = new HashMap<>();
 
-        while (scanner.hasNextLine()) {
-            ArrayList<String> tempArtistList = new ArrayList<>();
-
-            String line = scanner.nextLine();
-            if (!line.contains(userID)) {
-                continue;
-            }
-
-            String[] data = line.split(",");
-            String music = data[0];
-
-            for (int i = 1; i < data.length; i++) {
-                if (!data[i].startsWith("A")) {
-                    break;
-                }
-                tempArtistList.add(data[i]);
-            }
-            artists.put(music, tempArtistList);
-            musicGenres.put(music, data[data.length-3]);
-
-            int timesPlayed = Integer.parseInt(data[data.length - 1]);
-            playCounts.put(music, (playCounts.containsKey(music) ? playCounts.get(music) + timesPlayed : timesPlayed));
-        }
-
         String[] topThreeMusic = new String[3];
         for (int i = 0; i < 3; i++)
             topThreeMusic[i] = "-";
 
-        HashMap<String, Integer> topThreePlayedMusic = new HashMap<>();
-        for (int i = 0; i < Math.min(3, playCounts.size()); i++) {
-            Map.Entry<String, Integer> topEntry = null;
-            for (Map.Entry<String, Integer> entry : playCounts.entrySet()) {
-                topEntry = (topEntry == null || entry.getValue().compareTo(topEntry.getValue()) > 0) ? entry : topEntry;
-            }
-            playCounts.remove(topEntry.getKey());
-            topThreeMusic[i] = topEntry.getKey();
-            topThreePlayedMusic.put(topEntry.getKey(), topEntry.getValue());
+        // The top musics per user are precomputed when the dataset is loaded
+        int[] topMusic = dataset.getTopMusic(user);
+        for (int i = 0; i < Math.min(3, topMusic.length); i++) {
+            String music = dataset.getMusicID(topMusic[i]);
+            topThreeMusic[i] = music;
+            topThreePlayedMusic.put(music, dataset.getUserPlays(user, topMusic[i]));
+            musicGenres.put(music, dataset.getMusicGenre(topMusic[i]));
+            artists.put(music, dataset.getMusicArtists(topMusic[i]));
         }
 
         result = topThreeMusic;
@@ -135,6 +106,7 @@ public class GetTopThreeMusicByUserQuery extends Query {
         }
         UserProfile userProfile = new UserProfile(userID);
         userProfile.favoriteMusics = genreMap;
+        userProfile.topMusic = result.clone();
         // -----
         /*
         // Create value for cache entry
@@ -163,11 +135,48 @@ public class GetTopThreeMusicByUserQuery extends Query {
         }
         */
         // Return cache entry;
-        System.err.println("USERPROFILE GENERATED IN GETTOPTHREEMUSICBYUSER:\n" + userProfile);
+        Log.debug(() -> "User profile generated by getTopThreeMusicByUser:\n" + userProfile);
         server.addToCache(userProfile);
         this.cache = userProfile;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeUTF(userID);
+        writeStrings(out, result);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        userID = in.readUTF();
+        result = readStrings(in);
+    }
+
+    @Override
+    public String getCanonicalKey() { return "getTopThreeMusicByUser(" + userID + ")"; }
+
+    @Override
+    public void copyResultFrom(Query other) {
+        super.copyResultFrom(other);
+        result = ((GetTopThreeMusicByUserQuery) other).result.clone();
+    }
+
+    @Override
+    public String getUserID() { return userID; }
+
+    /**
+     * Answers the query from the exact top list stored in the profile by an earlier getTopThreeMusicByUser query. The
+     * musics in the profile are not used, since they are only some of the user's musics.
+     */
+    @Override
+    public boolean resolveFromProfile(UserProfile profile) {
+        if (profile == null || profile.topMusic == null) { return false; }
+        result = profile.topMusic.clone();
+        return true;
+    }
+
     @Override
     public String toString() {
         String s = "Top 3 musics for user '" + userID + "' were [" + result[0] + ", " + result[1] + ", " + result[2] + "]. ";
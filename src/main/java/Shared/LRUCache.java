@@ -0,0 +1,218 @@
+package Shared;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache with least recently used eviction.
+ * Entries are kept in an access ordered LinkedHashMap, so get, put and eviction are all O(1). The capacity is
+ * either a number of entries or, when a weigher is given, a total weight such as the estimated size in bytes.
+ * Entries can optionally expire a fixed time after they were last written.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+public class LRUCache<K, V> {
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Lock lock = new ReentrantLock();
+
+    private final long capacity;
+    private final ToLongFunction<V> weigher;
+    private final long expireAfterMillis;
+    private long weight = 0;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor for a cache holding up to a number of entries.
+     * @param capacity: the maximum number of entries.
+     */
+    public LRUCache(long capacity) {
+        this(capacity, value -> 1);
+    }
+
+    /**
+     * Constructor for a cache holding up to a total weight.
+     * @param capacity: the maximum total weight of the entries.
+     * @param weigher: function giving the weight of a value, for example its estimated size in bytes.
+     */
+    public LRUCache(long capacity, ToLongFunction<V> weigher) {
+        this(capacity, weigher, 0);
+    }
+
+    /**
+     * Constructor for a cache holding up to a total weight, where entries expire after a time to live.
+     * @param capacity: the maximum total weight of the entries.
+     * @param weigher: function giving the weight of a value, for example its estimated size in bytes.
+     * @param expireAfterMillis: how long an entry stays valid after it was written, or 0 for no expiry.
+     */
+    public LRUCache(long capacity, ToLongFunction<V> weigher, long expireAfterMillis) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.expireAfterMillis = expireAfterMillis;
+    }
+
+    /**
+     * Looks up a value and marks it as the most recently used entry.
+     * @param key: the key to look up.
+     * @return V: the cached value, or null on a cache miss.
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = live(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces a value, evicting the least recently used entries if the cache is over capacity.
+     * @param key: the key of the value.
+     * @param value: the value to cache.
+     */
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            insert(key, value, expiryFromNow());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a value, combining it with the previous value for the key if there is one. The combining function is run
+     * while holding the cache lock, so concurrent merges for the same key are not lost. The merged entry keeps the
+     * expiry time of the previous entry, since it still holds the previous value's data, so merging new values into
+     * an entry does not extend the time to live of the old data.
+     * @param key: the key of the value.
+     * @param value: the value to cache.
+     * @param remapping: function combining the previous value and the new value.
+     * @return V: the value now in the cache.
+     */
+    public V merge(K key, V value, BinaryOperator<V> remapping) {
+        lock.lock();
+        try {
+            Entry<V> previous = live(key);
+            V merged = (previous == null) ? value : remapping.apply(previous.value, value);
+            insert(key, merged, (previous == null) ? expiryFromNow() : previous.expiresAt);
+            return merged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry for a key.
+     * @param key: the key to remove.
+     * @return V: the removed value, or null if the key was not cached.
+     */
+    public V remove(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.remove(key);
+            if (entry == null) { return null; }
+            weight -= entry.weight;
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Statistics getters
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+
+    /**
+     * Looks up an entry, removing it if it has expired. Must be called while holding the lock.
+     */
+    private Entry<V> live(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt != 0 && System.currentTimeMillis() >= entry.expiresAt) {
+            entries.remove(key);
+            weight -= entry.weight;
+            evictions.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Inserts an entry as the most recently used one and evicts entries from the least recently used end until the
+     * cache is within capacity. Must be called while holding the lock.
+     */
+    private void insert(K key, V value, long expiresAt) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), expiresAt);
+        Entry<V> previous = entries.remove(key);
+        if (previous != null) { weight -= previous.weight; }
+
+        entries.put(key, entry);
+        weight += entry.weight;
+
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (weight > capacity && entries.size() > 1) {
+            weight -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the expiry time of an entry written now, or 0 if entries do not expire.
+     */
+    private long expiryFromNow() {
+        return (expireAfterMillis > 0) ? System.currentTimeMillis() + expireAfterMillis : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LRUCache {size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+
+        Entry(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
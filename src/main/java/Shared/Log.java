@@ -0,0 +1,156 @@
+package Shared;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Leveled, asynchronous logger shared by the servers, the proxy-server and the clients.
+ * Logging a message only puts a record in a bounded ring buffer; a single background thread formats the records and
+ * writes them to standard output in batches, so threads handling queries never wait for the console. If the buffer is
+ * full the record is dropped (and counted) rather than blocking the caller.
+ * Messages below the current level are discarded before they are built, so debug logging costs next to nothing while
+ * it is turned off. The level is INFO unless the "log.level" system property names another level.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static volatile Level level = Level.INFO;
+    private static final ArrayBlockingQueue<Record> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        Thread writer = new Thread(Log::writeRecords, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Write out whatever is left in the buffer when the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+
+        // An unknown level must not stop the program from starting, so it is reported and the default level is kept
+        String levelName = System.getProperty("log.level");
+        if (levelName != null) {
+            try {
+                level = Level.valueOf(levelName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                warn("Unknown log level \"" + levelName + "\" in the log.level property, using " + level + ".");
+            }
+        }
+    }
+
+    private Log() {}
+
+    public static void setLevel(Level newLevel) { level = newLevel; }
+    public static Level getLevel() { return level; }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+
+    // Messages that are built only if debug logging is turned on
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) { add(Level.DEBUG, message.get()); }
+    }
+
+    public static void info(String message) {
+        if (isEnabled(Level.INFO)) { add(Level.INFO, message); }
+    }
+
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) { add(Level.WARN, message); }
+    }
+
+    // The error's stack trace is formatted right away, and written on the lines after the message
+    public static void error(String message, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            if (error == null) {
+                add(Level.ERROR, message);
+                return;
+            }
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            add(Level.ERROR, message + "\n" + trace.toString().stripTrailing());
+        }
+    }
+
+    private static void add(Level messageLevel, String message) {
+        Record record = new Record(System.currentTimeMillis(), messageLevel, Thread.currentThread().getName(), message);
+        if (!buffer.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Body of the writer thread: waits for records and writes everything in the buffer at once.
+     */
+    private static void writeRecords() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        ArrayList<Record> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(buffer.take());
+                buffer.drainTo(batch);
+                write(out, timeFormat, batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the records left in the buffer from the calling thread.
+     */
+    public static void flush() {
+        ArrayList<Record> batch = new ArrayList<>();
+        buffer.drainTo(batch);
+        write(new BufferedWriter(new OutputStreamWriter(System.out)), new SimpleDateFormat("HH:mm:ss.SSS"), batch);
+    }
+
+    private static void write(Writer out, SimpleDateFormat timeFormat, ArrayList<Record> batch) {
+        try {
+            StringBuilder line = new StringBuilder(128);
+            for (Record record : batch) {
+                line.setLength(0);
+                line.append('[').append(timeFormat.format(new Date(record.time))).append("] ")
+                        .append(record.level).append(' ')
+                        .append(record.thread).append(": ")
+                        .append(record.message).append('\n');
+                out.write(line.toString());
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                out.write("[log] " + lost + " messages were dropped because the log buffer was full\n");
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Nowhere left to report the error
+        }
+    }
+
+    private static class Record {
+        final long time;
+        final Level level;
+        final String thread;
+        final String message;
+
+        Record(long time, Level level, String thread, String message) {
+            this.time = time;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+        }
+    }
+}
@@ -1,24 +1,86 @@
 package Shared;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
 
-public class MusicProfile implements Serializable {
+public class MusicProfile implements Externalizable {
     public String musicID;
     public ArrayList<String> artists;
 
+    // Used when the profile is read from the wire format
+    public MusicProfile() {
+        this.artists = new ArrayList<>();
+    }
+
     public MusicProfile(String musicID, ArrayList<String> artists) {
         this.musicID = musicID;
         this.artists = artists;
     }
 
+    /**
+     * Estimates the memory used by the profile in bytes.
+     * @return long: the estimated size in bytes.
+     */
+    public long estimateSize() {
+        long size = 80 + 2L * musicID.length();
+        for (String artist : artists) {
+            size += 48 + 2L * artist.length();
+        }
+        return size;
+    }
+
+    // Music profiles inside a user profile are written by UserProfile.writeExternal. These are used when a music profile
+    // is sent on its own
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(musicID);
+        out.writeInt(artists.size());
+        for (String artist : artists) {
+            out.writeUTF(artist);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        musicID = in.readUTF();
+        int numArtists = in.readInt();
+        artists = new ArrayList<>(numArtists);
+        for (int i = 0; i < numArtists; i++) {
+            artists.add(in.readUTF());
+        }
+    }
+
+    // Music profiles are identified by their musicID, so that merging cache entries does not duplicate musics
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof MusicProfile) && musicID.equals(((MusicProfile) other).musicID);
+    }
+
+    @Override
+    public int hashCode() {
+        return musicID.hashCode();
+    }
+
     @Override
     public String toString() {
-        String s = "[musicID=" + musicID + ", artists=( ";
+        StringBuilder s = new StringBuilder();
+        appendTo(s);
+        return s.toString();
+    }
+
+    /**
+     * Appends the string representation of the music profile, so that a user profile can be printed into a single
+     * StringBuilder.
+     * @param s: the builder to append to.
+     */
+    void appendTo(StringBuilder s) {
+        s.append("[musicID=").append(musicID).append(", artists=( ");
         for (String artist : artists) {
-            s += artist + " ";
+            s.append(artist).append(' ');
         }
-        s += ")]";
-        return s;
+        s.append(")]");
     }
 }
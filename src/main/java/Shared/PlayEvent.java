@@ -0,0 +1,110 @@
+package Shared;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A new row for the dataset: a number of plays of a music by a user. This has the same fields as a line in
+ * dataset.csv, and is sent to the servers to be added to the dataset without reloading it (see ServerInterface.ingest).
+ */
+public class PlayEvent implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public String musicID;
+    public String[] artists;
+    public String genre;
+    public String userID;
+    public int plays;
+
+    // Used when the event is read from the wire format
+    public PlayEvent() {}
+
+    /**
+     * Constructor for a play event.
+     * @param musicID: the music that was played.
+     * @param artists: the artists of the music.
+     * @param genre: the genre of the music.
+     * @param userID: the user who played the music.
+     * @param plays: the number of plays.
+     */
+    public PlayEvent(String musicID, String[] artists, String genre, String userID, int plays) {
+        this.musicID = musicID;
+        this.artists = artists;
+        this.genre = genre;
+        this.userID = userID;
+        this.plays = plays;
+    }
+
+    /**
+     * Parses a line in the dataset file format: musicID,artist_1,...,artist_n,genre,userID,plays
+     * @param line: the line to parse.
+     * @return PlayEvent: the parsed event.
+     * @throws IllegalArgumentException if the line does not have the dataset format, see also validate.
+     */
+    public static PlayEvent parse(String line) {
+        String[] fields = line.strip().split(",");
+        if (fields.length < 5) {
+            throw new IllegalArgumentException("Play event has too few fields: " + line);
+        }
+
+        String[] artists = new String[fields.length - 4];
+        System.arraycopy(fields, 1, artists, 0, artists.length);
+        PlayEvent event = new PlayEvent(fields[0], artists, fields[fields.length - 3], fields[fields.length - 2],
+                Integer.parseInt(fields[fields.length - 1]));
+        event.validate();
+        return event;
+    }
+
+    /**
+     * Checks that the event can be added to the dataset: every field is set, the music has at least one artist, and
+     * the number of plays is not negative.
+     * @throws IllegalArgumentException if the event is not valid.
+     */
+    public void validate() {
+        if (musicID == null || genre == null || userID == null || artists == null) {
+            throw new IllegalArgumentException("Play event has a missing field: " + this);
+        }
+        if (artists.length == 0) {
+            throw new IllegalArgumentException("Play event has no artists: " + this);
+        }
+        for (String artist : artists) {
+            if (artist == null) {
+                throw new IllegalArgumentException("Play event has a missing artist: " + this);
+            }
+        }
+        if (plays < 0) {
+            throw new IllegalArgumentException("Play event has a negative number of plays: " + this);
+        }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(musicID);
+        out.writeInt(artists.length);
+        for (String artist : artists) {
+            out.writeUTF(artist);
+        }
+        out.writeUTF(genre);
+        out.writeUTF(userID);
+        out.writeInt(plays);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        musicID = in.readUTF();
+        artists = new String[in.readInt()];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = in.readUTF();
+        }
+        genre = in.readUTF();
+        userID = in.readUTF();
+        plays = in.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return musicID + "," + ((artists == null) ? null : String.join(",", artists)) + "," + genre + "," + userID + "," + plays;
+    }
+}
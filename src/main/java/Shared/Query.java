@@ -1,10 +1,19 @@
 package Shared;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
+import Server.Dataset;
 import Server.Server;
 
-public abstract class Query implements Serializable {
+/**
+ * Base class of the queries sent between the clients and the servers.
+ * Queries are sent in a compact binary format (see writeExternal) instead of with default Java serialization, so every
+ * query class needs a public no-argument constructor and writes its own arguments and result after the common fields.
+ */
+public abstract class Query implements Externalizable {
     // Which zone is the client sending the query in
     public int clientZone;
 
@@ -14,9 +23,26 @@ public abstract class Query implements Serializable {
     // Which server is processing the query
     public int processingServer;
 
+    // Identifies the query among the queries sent by the client (used to match the response to the query)
+    public long queryID;
+
+    // Priority class of the query, and the time (in milliseconds) by which the response is no longer useful, or 0 if
+    // the query has no deadline
+    public QueryPriority priority = QueryPriority.NORMAL;
+    public long deadline = 0;
+
+    // What happened to the query in the server, see QueryStatus
+    public QueryStatus status = null;
+
+    // Number of times the query has been rejected by an overloaded server (used by the client to give up retrying)
+    public int rejections = 0;
+
     // Variable to store the cache generated for this query
     public UserProfile cache = null;
 
+    // Whether the cache generated for this query is sent back to the client. Clients that do not cache turn this off
+    public boolean returnProfile = true;
+
     /**
      * Used to store the following timestamps in the following indices
      * idx - timestamp
@@ -29,6 +55,9 @@ public abstract class Query implements Serializable {
      */
     public long[] timeStamps = new long[5];
 
+    // Used when the query is read from the wire format
+    protected Query() {}
+
     public Query(int clientZone, int clientNumber) {
         this.clientZone = clientZone;
         this.clientNumber = clientNumber;
@@ -38,13 +67,137 @@ public abstract class Query implements Serializable {
     public void setClientZone(int clientZone) { this.clientZone = clientZone; }
     public void setClientNumber(int clientNumber) { this.clientNumber = clientNumber; }
     public void setProcessingServer(int processingServer) { this.processingServer = processingServer; }
+    public void setQueryID(long queryID) { this.queryID = queryID; }
 
     // Getters
     public int getClientZone() { return this.clientZone; }
     public int getClientNumber() { return this.clientNumber; }
     public int getProcessingServer() { return this.processingServer; }
+    public long getQueryID() { return this.queryID; }
+
+    public abstract void run(Dataset dataset, Server server);
+
+    /**
+     * Checks whether the query's deadline has passed.
+     * @param now: the current time in milliseconds.
+     * @return boolean: true if the query has a deadline and it has passed.
+     */
+    public boolean hasExpired(long now) {
+        return deadline != 0 && now > deadline;
+    }
+
+    /**
+     * Get the userID argument of the query, used as the key for the user profile caches.
+     * @return String: the userID, or null if the query is not about a single user.
+     */
+    public String getUserID() { return null; }
+
+    /**
+     * Get the key used to route the query, so that queries with the same key go to the same server and find each
+     * other's results in its cache. By default this is the userID.
+     * @return String: the routing key, or null if the query can be sent to any server.
+     */
+    public String getRoutingKey() { return getUserID(); }
+
+    /**
+     * Get a key identifying the query's type and arguments. Identical queries have the same key, so the server can
+     * compute the result once and copy it to the others.
+     * @return String: the key, or null if the query cannot share its computation.
+     */
+    public String getCanonicalKey() { return null; }
+
+    /**
+     * Copies the result (and the cached user profile) of an identical query into this query. The query keeps its own
+     * client, timestamps and ID.
+     * @param other: a query with the same canonical key, which has been processed.
+     */
+    public void copyResultFrom(Query other) { this.cache = other.cache; }
 
-    public abstract void run(String filename, Server server);
+    /**
+     * Tries to answer the query from a cached user profile. This is used by both the server and client caches.
+     * @param profile: the cached profile of the query's user, or null on a cache miss.
+     * @return boolean: true if the profile could answer the query, in which case the query result has been set.
+     */
+    public boolean resolveFromProfile(UserProfile profile) { return false; }
+
+    /**
+     * Writes the fields common to all queries. Subclasses write their arguments and result after calling this.
+     * @param out: the stream to write to.
+     * @throws IOException
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(clientZone);
+        out.writeInt(clientNumber);
+        out.writeInt(processingServer);
+        out.writeLong(queryID);
+        out.writeByte(priority.ordinal());
+        out.writeLong(deadline);
+        out.writeByte((status == null) ? -1 : status.ordinal());
+        out.writeInt(rejections);
+        for (long timeStamp : timeStamps) {
+            out.writeLong(timeStamp);
+        }
+
+        // The user profile is only written if the client wants it
+        out.writeBoolean(returnProfile);
+        boolean writeProfile = returnProfile && cache != null;
+        out.writeBoolean(writeProfile);
+        if (writeProfile) {
+            cache.writeExternal(out);
+        }
+    }
+
+    /**
+     * Reads the fields written by writeExternal.
+     * @param in: the stream to read from.
+     * @throws IOException
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        clientZone = in.readInt();
+        clientNumber = in.readInt();
+        processingServer = in.readInt();
+        queryID = in.readLong();
+        priority = QueryPriority.values()[in.readByte()];
+        deadline = in.readLong();
+        int statusCode = in.readByte();
+        status = (statusCode == -1) ? null : QueryStatus.values()[statusCode];
+        rejections = in.readInt();
+        for (int i = 0; i < timeStamps.length; i++) {
+            timeStamps[i] = in.readLong();
+        }
+
+        returnProfile = in.readBoolean();
+        if (in.readBoolean()) {
+            cache = new UserProfile();
+            cache.readExternal(in);
+        }
+    }
+
+    /**
+     * Writes a query result of up to 127 strings, which may be null.
+     */
+    protected static void writeStrings(ObjectOutput out, String[] values) throws IOException {
+        out.writeByte((values == null) ? -1 : values.length);
+        if (values == null) { return; }
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a query result written by writeStrings.
+     */
+    protected static String[] readStrings(ObjectInput in) throws IOException {
+        int length = in.readByte();
+        if (length == -1) { return null; }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,11 @@
+package Shared;
+
+/**
+ * Priority class of a query. Each class has its own queue in the server, and the classes share the processing threads
+ * according to their weights (see ServerConfig.priorityWeights).
+ */
+public enum QueryPriority {
+    HIGH,
+    NORMAL,
+    LOW
+}
@@ -0,0 +1,18 @@
+package Shared;
+
+/**
+ * Result of sending a query to a (processing) server.
+ */
+public enum QueryStatus {
+    // The query was queued, and the response will be sent back to the client
+    ACCEPTED,
+
+    // The server's queue is full, so the query was rejected and should be sent to another server
+    OVERLOADED,
+
+    // The query's deadline passed while it was waiting in the server's queue, so it was dropped without being processed
+    EXPIRED,
+
+    // Something went wrong while the server was processing the query, so it has no result
+    FAILED
+}
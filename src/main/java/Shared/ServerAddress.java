@@ -1,10 +1,16 @@
 package Shared;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
-public class ServerAddress implements Serializable {
+public class ServerAddress implements Externalizable {
     public String address;
 
+    // Used when the address is read from the wire format
+    public ServerAddress() {}
+
     /**
      * Stores an address for a server.
      * This is used to send the necessary data from the proxy-server to clients describing which server -
@@ -15,6 +21,16 @@ public class ServerAddress implements Serializable {
         this.address = address;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(address);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        address = in.readUTF();
+    }
+
     @Override
     public String toString() {
         return address;
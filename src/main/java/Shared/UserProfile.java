@@ -1,32 +1,244 @@
 package Shared;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-public class UserProfile implements Serializable {
+public class UserProfile implements Externalizable {
     public String userID;
     public HashMap<String, HashMap<MusicProfile, Integer>> favoriteMusics;
 
+    // Exact results of the top queries for the user, set by the queries that computed them. favoriteMusics only holds
+    // some of the user's musics, so the top lists cannot be derived from it. topMusic is null, and a genre is missing
+    // from topArtists, if the result is not known
+    public String[] topMusic = null;
+    public HashMap<String, String[]> topArtists = new HashMap<>();
+
+    // Used when the profile is read from the wire format
+    public UserProfile() {
+        this.favoriteMusics = new HashMap<>();
+    }
+
     public UserProfile(String userID) {
         this.userID = userID;
         this.favoriteMusics = new HashMap<>();
     }
 
+    /**
+     * Merges a previous cache entry into a new entry for the same user, so that the new entry contains all the new and
+     * old data, including the known top lists. Data in the new entry takes precedence.
+     *
+     * @param previous: the profile already in the cache.
+     * @param userProfile: the new profile.
+     * @return UserProfile: the merged profile.
+     */
+    public static UserProfile merge(UserProfile previous, UserProfile userProfile) {
+        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : previous.favoriteMusics.entrySet()) {
+            // If data about the genre exists in both the previous and new entry, we merge the contents
+            if (userProfile.favoriteMusics.containsKey(genreEntry.getKey())) {
+                for (Map.Entry<MusicProfile, Integer> musicEntry : genreEntry.getValue().entrySet()) {
+                    userProfile.favoriteMusics.get(genreEntry.getKey()).putIfAbsent(musicEntry.getKey(), musicEntry.getValue());
+                }
+            }
+            // Otherwise we just add the extra genre data to the new entry so that it contains all the new and old data
+            else {
+                userProfile.favoriteMusics.put(genreEntry.getKey(), genreEntry.getValue());
+            }
+        }
+        if (userProfile.topMusic == null) {
+            userProfile.topMusic = previous.topMusic;
+        }
+        for (Map.Entry<String, String[]> artistEntry : previous.topArtists.entrySet()) {
+            userProfile.topArtists.putIfAbsent(artistEntry.getKey(), artistEntry.getValue());
+        }
+        return userProfile;
+    }
+
+    /**
+     * Estimates the memory used by the profile in bytes. This is used to limit a cache by size instead of by the
+     * number of entries.
+     * @return long: the estimated size in bytes.
+     */
+    public long estimateSize() {
+        long size = 64 + 2L * userID.length();
+        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : favoriteMusics.entrySet()) {
+            size += 96 + 2L * genreEntry.getKey().length();
+            for (MusicProfile music : genreEntry.getValue().keySet()) {
+                size += 48 + music.estimateSize();
+            }
+        }
+        if (topMusic != null) {
+            size += estimateSize(topMusic);
+        }
+        for (Map.Entry<String, String[]> artistEntry : topArtists.entrySet()) {
+            size += 48 + 2L * artistEntry.getKey().length() + estimateSize(artistEntry.getValue());
+        }
+        return size;
+    }
+
+    private static long estimateSize(String[] values) {
+        long size = 16 + 8L * values.length;
+        for (String value : values) {
+            size += 40 + 2L * value.length();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the profile in a compact binary format. Genres, musicIDs and artist names repeat a lot within a profile,
+     * so every distinct string is written once in a string table, and the profile itself is written as an array of
+     * ints referring to the table:
+     *   numGenres, then per genre: genre, numMusics, then per music: musicID, plays, numArtists, artist...
+     *   numTopMusic (-1 if unknown), musicID..., numTopArtistGenres, then per genre: genre, numArtists, artist...
+     * @param out: the stream to write to.
+     * @throws IOException
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        HashMap<String, Integer> codes = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        ArrayList<Integer> encoded = new ArrayList<>();
+
+        encoded.add(favoriteMusics.size());
+        for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : favoriteMusics.entrySet()) {
+            encoded.add(encode(genreEntry.getKey(), codes, strings));
+            encoded.add(genreEntry.getValue().size());
+            for (Map.Entry<MusicProfile, Integer> musicEntry : genreEntry.getValue().entrySet()) {
+                MusicProfile music = musicEntry.getKey();
+                encoded.add(encode(music.musicID, codes, strings));
+                encoded.add(musicEntry.getValue());
+                encoded.add(music.artists.size());
+                for (String artist : music.artists) {
+                    encoded.add(encode(artist, codes, strings));
+                }
+            }
+        }
+
+        encodeAll(topMusic, encoded, codes, strings);
+        encoded.add(topArtists.size());
+        for (Map.Entry<String, String[]> artistEntry : topArtists.entrySet()) {
+            encoded.add(encode(artistEntry.getKey(), codes, strings));
+            encodeAll(artistEntry.getValue(), encoded, codes, strings);
+        }
+
+        out.writeUTF(userID);
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        out.writeInt(encoded.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            out.writeInt(encoded.get(i));
+        }
+    }
+
+    /**
+     * Reads a profile written by writeExternal.
+     * @param in: the stream to read from.
+     * @throws IOException
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        userID = in.readUTF();
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        int[] encoded = new int[in.readInt()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = in.readInt();
+        }
+
+        int position = 0;
+        int numGenres = encoded[position++];
+        favoriteMusics = new HashMap<>();
+        for (int g = 0; g < numGenres; g++) {
+            String genre = strings[encoded[position++]];
+            int numMusics = encoded[position++];
+            HashMap<MusicProfile, Integer> musics = new HashMap<>();
+            for (int m = 0; m < numMusics; m++) {
+                String musicID = strings[encoded[position++]];
+                int plays = encoded[position++];
+                int numArtists = encoded[position++];
+                ArrayList<String> artists = new ArrayList<>(numArtists);
+                for (int a = 0; a < numArtists; a++) {
+                    artists.add(strings[encoded[position++]]);
+                }
+                musics.put(new MusicProfile(musicID, artists), plays);
+            }
+            favoriteMusics.put(genre, musics);
+        }
+
+        int numTopMusic = encoded[position++];
+        topMusic = (numTopMusic < 0) ? null : new String[numTopMusic];
+        for (int i = 0; i < numTopMusic; i++) {
+            topMusic[i] = strings[encoded[position++]];
+        }
+        int numTopArtistGenres = encoded[position++];
+        topArtists = new HashMap<>();
+        for (int g = 0; g < numTopArtistGenres; g++) {
+            String genre = strings[encoded[position++]];
+            String[] artists = new String[encoded[position++]];
+            for (int a = 0; a < artists.length; a++) {
+                artists[a] = strings[encoded[position++]];
+            }
+            topArtists.put(genre, artists);
+        }
+    }
+
+    /**
+     * Adds the length of an array of strings (-1 if it is null) followed by the index of each string.
+     */
+    private static void encodeAll(String[] values, ArrayList<Integer> encoded, HashMap<String, Integer> codes, ArrayList<String> strings) {
+        if (values == null) {
+            encoded.add(-1);
+            return;
+        }
+        encoded.add(values.length);
+        for (String value : values) {
+            encoded.add(encode(value, codes, strings));
+        }
+    }
+
+    /**
+     * Get the index of a string in the string table, adding it if it is not there yet.
+     */
+    private static int encode(String string, HashMap<String, Integer> codes, ArrayList<String> strings) {
+        Integer code = codes.get(string);
+        if (code == null) {
+            code = strings.size();
+            codes.put(string, code);
+            strings.add(string);
+        }
+        return code;
+    }
+
     @Override
     public String toString() {
-        String s = "UserProfile object {\n";
-        s += "\tuserID=" + userID + "\n";
-        s += "\tfavoriteMusics={\n";
+        StringBuilder s = new StringBuilder("UserProfile object {\n");
+        s.append("\tuserID=").append(userID).append("\n");
+        s.append("\tfavoriteMusics={\n");
         for (Map.Entry<String, HashMap<MusicProfile, Integer>> genreEntry : favoriteMusics.entrySet()) {
-            s += "\t\tGenre=" + genreEntry.getKey() +
-                    ", HashMap={";
+            s.append("\t\tGenre=").append(genreEntry.getKey()).append(", HashMap={");
             for (Map.Entry<MusicProfile, Integer> musicEntry : genreEntry.getValue().entrySet()) {
-                s += musicEntry.getKey().toString() + ": " + musicEntry.getValue() + ", ";
+                musicEntry.getKey().appendTo(s);
+                s.append(": ").append(musicEntry.getValue()).append(", ");
             }
-            s += "]}\n";
+            s.append("]}\n");
+        }
+        s.append("\t}\n");
+        if (topMusic != null) {
+            s.append("\ttopMusic=").append(Arrays.toString(topMusic)).append("\n");
+        }
+        for (Map.Entry<String, String[]> artistEntry : topArtists.entrySet()) {
+            s.append("\ttopArtists(").append(artistEntry.getKey()).append(")=").append(Arrays.toString(artistEntry.getValue())).append("\n");
         }
-        s += "\t}\n}";
-        return s;
+        s.append("}");
+        return s.toString();
     }
 }